@@ -0,0 +1,97 @@
+package analyzer.benchmarks;
+
+import com.atilika.kuromoji.unidic.kanaaccent.Token;
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodType;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/*
+ * Licensed under a public domain‐like license. See Main.java for license text.
+ */
+
+// Counting every token of the corpus into a fresh table, as is, with spellings pulled out (-l) and as lexemes (-x)
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AddEventBenchmark
+{
+    static final Class<?> table = Bridge.type("miniFrequencyData");
+    static final MethodHandle create = Bridge.constructor(table)
+        .asType(MethodType.methodType(Object.class));
+    static final MethodHandle add_event = Bridge.method(table, "addEvent", String.class, String.class, long.class, Supplier.class)
+        .asType(MethodType.methodType(void.class, Object.class, String.class, String.class, long.class, Supplier.class));
+    private static final Class<?> analyzer = Bridge.type("Analyzer");
+    private static final MethodHandle identity_of = Bridge.method(analyzer, "identity_of", Bridge.type("TokenFields"))
+        .asType(MethodType.methodType(String.class, Object.class, Object.class));
+    private static final MethodHandle spelling_of = Bridge.method(analyzer, "spelling_of", Bridge.type("TokenFields"))
+        .asType(MethodType.methodType(String.class, Object.class, Object.class));
+
+    @Param({"plain", "spellings", "lexemes"})
+    public String mode;
+
+    private String[] identities;
+    private String[] spellings;
+    private long[] lines;
+
+    // a session with -l or -x set, plus any other options
+    static Object analyzer(String mode, Object... options)
+    {
+        Object[] all = new Object[options.length + 4];
+        all[0] = "pull_out_spellings";
+        all[1] = mode.equals("spellings");
+        all[2] = "lexeme_only";
+        all[3] = mode.equals("lexemes");
+        System.arraycopy(options, 0, all, 4, options.length);
+        return Bridge.analyzer(all);
+    }
+
+    // what analyze_line counts for every token of the corpus, each corpus line counting as its own line. Like there,
+    // tokens that make the same term share its strings.
+    static void events(Object analyzer, String[] identities, String[] spellings, long[] lines) throws Throwable
+    {
+        List<Token> tokens = Fixtures.tokens();
+        HashMap<String, String> interned = new HashMap<>();
+        for(int i = 0; i < identities.length; i++)
+        {
+            Object fields = (Object)Fixtures.fields_of.invokeExact(tokens.get(i));
+            String identity = (String)identity_of.invokeExact(analyzer, fields);
+            String spelling = (String)spelling_of.invokeExact(analyzer, fields);
+            identities[i] = interned.computeIfAbsent(identity, (text) -> text);
+            spellings[i] = spelling != null ? interned.computeIfAbsent(spelling, (text) -> text) : null;
+            lines[i] = i/8;
+        }
+    }
+
+    // a table with all of them in it
+    static Object fill(String[] identities, String[] spellings, long[] lines) throws Throwable
+    {
+        Object data = (Object)create.invokeExact();
+        for(int i = 0; i < identities.length; i++)
+            add_event.invokeExact(data, identities[i], spellings[i], lines[i], (Supplier<?>)null);
+        return data;
+    }
+
+    @Setup
+    public void setup() throws Throwable
+    {
+        int count = Fixtures.tokens().size();
+        identities = new String[count];
+        spellings = new String[count];
+        lines = new long[count];
+        events(analyzer(mode), identities, spellings, lines);
+    }
+
+    @Benchmark
+    public Object addEvents() throws Throwable
+    {
+        return fill(identities, spellings, lines);
+    }
+}
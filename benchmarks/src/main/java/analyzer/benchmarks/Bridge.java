@@ -0,0 +1,95 @@
+package analyzer.benchmarks;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+
+/*
+ * Licensed under a public domain‐like license. See Main.java for license text.
+ */
+
+// The analyzer lives in the default package, which nothing else can import, and most of what's worth measuring is
+// package-private. Benchmarks get at it through method handles looked up once, which the JIT inlines like direct calls.
+final class Bridge
+{
+    private static final MethodHandles.Lookup lookup = MethodHandles.lookup();
+
+    private Bridge()
+    {
+    }
+
+    static Class<?> type(String name)
+    {
+        try
+        {
+            return Class.forName(name);
+        }
+        catch (ClassNotFoundException e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static MethodHandle method(Class<?> owner, String name, Class<?>... parameters)
+    {
+        try
+        {
+            Method method = owner.getDeclaredMethod(name, parameters);
+            method.setAccessible(true);
+            return lookup.unreflect(method);
+        }
+        catch (ReflectiveOperationException e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static MethodHandle constructor(Class<?> owner, Class<?>... parameters)
+    {
+        try
+        {
+            Constructor<?> constructor = owner.getDeclaredConstructor(parameters);
+            constructor.setAccessible(true);
+            return lookup.unreflectConstructor(constructor);
+        }
+        catch (ReflectiveOperationException e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // sets a field of target, private or not
+    static void set(Object target, String name, Object value)
+    {
+        try
+        {
+            Field field = target.getClass().getDeclaredField(name);
+            field.setAccessible(true);
+            field.set(target, value);
+        }
+        catch (ReflectiveOperationException e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // an analysis session with these AnalyzerConfig.Builder fields set, given as name, value, name, value, ...
+    static Object analyzer(Object... options)
+    {
+        try
+        {
+            Class<?> builder_type = type("AnalyzerConfig$Builder");
+            Object builder = constructor(builder_type).invoke();
+            for(int i = 0; i < options.length; i += 2)
+                set(builder, (String)options[i], options[i + 1]);
+            Object config = method(builder_type, "build").invoke(builder);
+            return constructor(type("Analyzer"), type("AnalyzerConfig")).invoke(config);
+        }
+        catch (Throwable e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package analyzer.benchmarks;
+
+import com.atilika.kuromoji.unidic.kanaaccent.Token;
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodType;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Licensed under a public domain‐like license. See Main.java for license text.
+ */
+
+// Analyzer.filter_reason on every token of the corpus: the dictionary and punctuation checks plus userfilters.csv
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FilterBenchmark
+{
+    private static final Class<?> analyzer_type = Bridge.type("Analyzer");
+    private static final MethodHandle filter_reason = Bridge.method(analyzer_type, "filter_reason", Bridge.type("TokenFields"))
+        .asType(MethodType.methodType(int.class, Object.class, Object.class));
+
+    @Param({"small", "large"})
+    public String rules;
+
+    @Param({"false", "true"})
+    public boolean kanji_only;
+
+    private Token[] tokens;
+    private Object analyzer;
+
+    @Setup
+    public void setup() throws Throwable
+    {
+        Class<?> filter_info = Bridge.type("FilterInfo");
+        Class<?> filter_index = Bridge.type("FilterIndex");
+        MethodHandle builder = Bridge.method(analyzer_type, "filter_builder", String.class);
+        MethodHandle add = Bridge.method(filter_index, "add", filter_info);
+        Object index = Bridge.constructor(filter_index).invoke();
+        for(String line : Fixtures.lines("userfilters-" + rules + ".csv"))
+            add.invoke(index, builder.invoke(line));
+        analyzer = Bridge.analyzer("enable_userfilter", true, "filter_kanji_only", kanji_only);
+        Bridge.set(analyzer, "filters", index);
+
+        List<Token> list = Fixtures.tokens();
+        tokens = list.toArray(new Token[0]);
+    }
+
+    @Benchmark
+    public int filter() throws Throwable
+    {
+        int kept = 0;
+        for(Token token : tokens)
+        {
+            if((int)filter_reason.invokeExact(analyzer, (Object)Fixtures.fields_of.invokeExact(token)) == 0)
+                kept++;
+        }
+        return kept;
+    }
+}
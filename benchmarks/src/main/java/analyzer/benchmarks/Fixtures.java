@@ -0,0 +1,62 @@
+package analyzer.benchmarks;
+
+import com.atilika.kuromoji.unidic.kanaaccent.Token;
+import com.atilika.kuromoji.unidic.kanaaccent.Tokenizer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodType;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/*
+ * Licensed under a public domain‐like license. See Main.java for license text.
+ */
+
+// The checked in test data under fixtures/: a synthetic corpus (narration, dialogue, ー-heavy katakana, 《》 furigana
+// and 〈〉) and userfilters.csv rule sets with 16 and 20000 rules.
+final class Fixtures
+{
+    private static Tokenizer tokenizer;
+    // TokenFields.of, the analyzer reads tokens through those
+    static final MethodHandle fields_of = Bridge.method(Bridge.type("TokenFields"), "of", Token.class)
+        .asType(MethodType.methodType(Object.class, Token.class));
+
+    private Fixtures()
+    {
+    }
+
+    static byte[] bytes(String name) throws IOException
+    {
+        try (InputStream in = Fixtures.class.getResourceAsStream("/fixtures/" + name))
+        {
+            if(in == null)
+                throw new IOException("Missing fixture: " + name);
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1<<16];
+            for(int n; (n = in.read(buffer)) > 0; )
+                bytes.write(buffer, 0, n);
+            return bytes.toByteArray();
+        }
+    }
+
+    static List<String> lines(String name) throws IOException
+    {
+        return Arrays.asList(new String(bytes(name), StandardCharsets.UTF_8).split("\n"));
+    }
+
+    // every token of the corpus, tokenized once per fork
+    static List<Token> tokens() throws IOException
+    {
+        if(tokenizer == null)
+            tokenizer = new Tokenizer.Builder().build();
+        ArrayList<Token> tokens = new ArrayList<>();
+        for(String line : lines("corpus.txt"))
+            tokens.addAll(tokenizer.tokenize(line));
+        return tokens;
+    }
+}
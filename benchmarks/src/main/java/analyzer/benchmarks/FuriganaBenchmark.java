@@ -0,0 +1,44 @@
+package analyzer.benchmarks;
+
+import com.atilika.kuromoji.unidic.kanaaccent.Token;
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodType;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Licensed under a public domain‐like license. See Main.java for license text.
+ */
+
+// Utils.toFurigana on every token of the corpus, what -r does for each line a new term shows up on
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FuriganaBenchmark
+{
+    private static final MethodHandle to_furigana = Bridge.method(Bridge.type("Utils"), "toFurigana", Bridge.type("TokenFields"))
+        .asType(MethodType.methodType(String.class, Object.class));
+
+    private Token[] tokens;
+
+    @Setup
+    public void setup() throws Exception
+    {
+        List<Token> list = Fixtures.tokens();
+        tokens = list.toArray(new Token[0]);
+    }
+
+    @Benchmark
+    public long furigana() throws Throwable
+    {
+        long chars = 0;
+        for(Token token : tokens)
+            chars += ((String)to_furigana.invokeExact((Object)Fixtures.fields_of.invokeExact(token))).length();
+        return chars;
+    }
+}
@@ -0,0 +1,50 @@
+package analyzer.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodType;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Licensed under a public domain‐like license. See Main.java for license text.
+ */
+
+// Splitting the corpus into lines, with and without -s furigana stripping
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LineReaderBenchmark
+{
+    private static final Class<?> line_reader = Bridge.type("LineReader");
+    private static final MethodHandle open = Bridge.constructor(line_reader, ByteBuffer.class, boolean.class)
+        .asType(MethodType.methodType(Object.class, ByteBuffer.class, boolean.class));
+    private static final MethodHandle read_line = Bridge.method(line_reader, "readLine")
+        .asType(MethodType.methodType(String.class, Object.class));
+
+    @Param({"false", "true"})
+    public boolean strip_furigana;
+
+    private byte[] corpus;
+
+    @Setup
+    public void setup() throws Exception
+    {
+        corpus = Fixtures.bytes("corpus.txt");
+    }
+
+    @Benchmark
+    public long readLines() throws Throwable
+    {
+        Object in = (Object)open.invokeExact(ByteBuffer.wrap(corpus), strip_furigana);
+        long chars = 0;
+        String line;
+        while((line = (String)read_line.invokeExact(in)) != null)
+            chars += line.length();
+        return chars;
+    }
+}
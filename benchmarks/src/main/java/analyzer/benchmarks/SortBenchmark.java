@@ -0,0 +1,93 @@
+package analyzer.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodType;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongFunction;
+
+/*
+ * Licensed under a public domain‐like license. See Main.java for license text.
+ */
+
+// Turning a table of the corpus into the sorted output rows, or writing them out as text, in each respelling mode
+// and with and without -c
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SortBenchmark
+{
+    private static final MethodHandle sorted = Bridge.method(AddEventBenchmark.table, "getSortedFrequencyList", int.class, int.class, LongFunction.class)
+        .asType(MethodType.methodType(List.class, Object.class, int.class, int.class, LongFunction.class));
+    private static final Class<?> writer = Bridge.type("TsvWriter");
+    private static final MethodHandle new_writer = Bridge.constructor(writer, OutputStream.class)
+        .asType(MethodType.methodType(Object.class, OutputStream.class));
+    private static final MethodHandle write_sorted = Bridge.method(AddEventBenchmark.table, "writeSortedFrequencyList", writer, int.class, int.class, LongFunction.class)
+        .asType(MethodType.methodType(void.class, Object.class, Object.class, int.class, int.class, LongFunction.class));
+    private static final MethodHandle flush = Bridge.method(writer, "flush")
+        .asType(MethodType.methodType(void.class, Object.class));
+    private static final MethodHandle line_labels = Bridge.method(Bridge.type("Analyzer"), "line_labels")
+        .asType(MethodType.methodType(LongFunction.class, Object.class));
+
+    @Param({"plain", "spellings", "lexemes"})
+    public String mode;
+
+    @Param({"false", "true"})
+    public boolean line_counter;
+
+    private Object data;
+    private LongFunction<?> labels;
+
+    @Setup
+    public void setup() throws Throwable
+    {
+        Object analyzer = AddEventBenchmark.analyzer(mode, "enable_linecounter", line_counter);
+        int count = Fixtures.tokens().size();
+        String[] identities = new String[count];
+        String[] spellings = new String[count];
+        long[] lines = new long[count];
+        AddEventBenchmark.events(analyzer, identities, spellings, lines);
+        data = AddEventBenchmark.fill(identities, spellings, lines);
+        labels = (LongFunction<?>)line_labels.invokeExact(analyzer);
+    }
+
+    @Benchmark
+    public List<?> sort() throws Throwable
+    {
+        return (List<?>)sorted.invokeExact(data, 0, 0, labels);
+    }
+
+    // only counts what gets written to it
+    private static final class Discard extends OutputStream
+    {
+        long bytes = 0;
+
+        @Override
+        public void write(int b)
+        {
+            bytes++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len)
+        {
+            bytes += len;
+        }
+    }
+
+    @Benchmark
+    public long write() throws Throwable
+    {
+        Discard out = new Discard();
+        Object rows = new_writer.invokeExact((OutputStream)out);
+        write_sorted.invokeExact(data, rows, 0, 0, labels);
+        flush.invokeExact(rows);
+        return out.bytes;
+    }
+}
@@ -0,0 +1,1639 @@
+import com.atilika.kuromoji.unidic.kanaaccent.Token;
+import com.atilika.kuromoji.unidic.kanaaccent.Tokenizer;
+
+import com.atilika.kuromoji.dict.UserDictionary;
+import com.atilika.kuromoji.util.SimpleResourceResolver;
+import com.atilika.kuromoji.util.StringUtils;
+
+import java.io.*;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.LongFunction;
+import java.util.function.LongUnaryOperator;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/*
+ * Licensed under a public domain‐like license. See Main.java for license text.
+ */
+
+// One analysis session: its config, the user filters and dictionary it loaded, and the state of the run it's
+// doing. A session does one run (or merge) at a time, but nothing here is shared between sessions except the
+// system dictionary, so any number of them can run at once in one process. analyze_documents only reads the session, so
+// a loaded one can serve any number of those at once.
+class Analyzer
+{
+    final AnalyzerConfig config;
+
+    // how many rows merge sorts in memory at once when no spill threshold is given
+    private static final int merge_rows_in_memory = 1<<20;
+
+    // with more than one input file, -c gives the file and the line within it instead of one running line number
+    private String[] source_names = null;
+    private long[] source_first_lines = null;
+
+    private volatile RunMetrics metrics = new RunMetrics(false);
+    
+    private volatile boolean cancelled = false;
+    // whether the last run() got to the end
+    private boolean completed = false;
+    
+    // While a run goes on, every thread counting terms into a table of its own (the counter in analyze_stream, the
+    // workers in analyze_chunks) copies out that table's top terms every so often, see count. The table keeps those
+    // up to date as it counts, so that only takes as long as there are top terms. preview() only reads what the
+    // threads left, so asking for it never holds them up.
+    private static final long preview_every = 1000000000L; // ns
+    private static class Preview
+    {
+        long next = 0; // System.nanoTime() of when to look again
+        volatile ArrayList<Fact> top = new ArrayList<>();
+    }
+    private final ArrayList<Preview> previews = new ArrayList<>();
+    private ThreadLocal<Preview> thread_preview = ThreadLocal.withInitial(this::new_preview);
+
+    private FilterIndex filters = new FilterIndex();
+    
+    Analyzer(AnalyzerConfig config)
+    {
+        this.config = config;
+    }
+    
+    private static FilterInfo filter_builder(String str)
+    {
+        if(str == null || str.equals("")) return null;
+        String[] parts = str.split(",");
+        FilterInfo info = new FilterInfo();
+        if(parts.length > 0)
+        {
+            info.word = parts[0];
+            if(!info.word.equals(""))
+                info.mode_word = 1;
+        }
+        if(parts.length > 1)
+        {
+            info.a = parts[1];
+            if(!info.a.equals(""))
+                info.mode_a = 1;
+        }
+        if(parts.length > 2)
+        {
+            info.b = parts[2];
+            if(!info.b.equals(""))
+                info.mode_b = 1;
+        }
+        if(parts.length > 3)
+        {
+            info.c = parts[3];
+            if(!info.c.equals(""))
+                info.mode_c = 1;
+        }
+        if(parts.length > 4)
+        {
+            info.d = parts[4];
+            if(!info.d.equals(""))
+                info.mode_d = 1;
+        }
+        return info;
+    }
+    private void init_filter() throws IOException
+    {
+        byte[] bytes = Files.readAllBytes(Paths.get(config.userfilters_file));
+        userfilters_hash = sha256(bytes);
+        LineReader userfilters = new LineReader(new ByteArrayInputStream(bytes), false);
+        FilterIndex index = new FilterIndex();
+        String line;
+        while ((line = userfilters.readLine()) != null)
+            index.add(filter_builder(line));
+        userfilters.close();
+        filters = index;
+    }
+    
+    // which filter drops the token, the first one that does if it's more than one
+    private int filter_reason(TokenFields token)
+    {
+        // not in dictionary
+        if(config.filter_dictionary_enabled && !token.token.isKnown() && !token.token.isUser()) return RunMetrics.by_dictionary;
+        
+        // is punctuation
+        if(config.filter_punctuation_enabled && CharacterClasses.isPunctuation(token.surface())) return RunMetrics.by_punctuation;
+
+        if(config.filter_kanji_only && !CharacterClasses.startsWithKanji(token.written_base_form())) return RunMetrics.by_kanji_only;
+
+        // undesirable term
+        
+        if(!config.enable_userfilter) return RunMetrics.kept;
+        
+        return filters.matches(token) ? RunMetrics.by_user_filter : RunMetrics.kept;
+    }
+
+    private UserDictionary userdict = null;
+    private byte[] userdict_hash = null;
+    private byte[] userfilters_hash = null;
+    
+    private static byte[] sha256(byte[] bytes)
+    {
+        try
+        {
+            return MessageDigest.getInstance("SHA-256").digest(bytes);
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+    // Loading the system dictionary takes about as long as analyzing a typical input, and userdict.csv can take even
+    // longer to parse, so neither gets done more than once: the system dictionary is loaded by the first tokenizer
+    // anyone builds and shared by all later ones, and userdict.csv comes compiled from next to it, see
+    // CompiledUserDictionary. Both are only ever read, so every thread still tokenizes with a tokenizer of its own,
+    // which takes next to nothing to build on top of them.
+    @SuppressWarnings("unchecked") // Tokenizer.Builder overrides kuromoji's generic build() with an unchecked one
+    private static class TokenizerBuilder extends Tokenizer.Builder
+    {
+        private static TokenizerBuilder system_dictionary = null; // the first one, which loaded it
+        
+        TokenizerBuilder(UserDictionary user_dictionary)
+        {
+            // kuromoji looks for the dictionary next to the builder's class, which this one has moved
+            resolver = new SimpleResourceResolver(Tokenizer.class);
+            userDictionary = user_dictionary;
+        }
+        
+        @Override
+        protected void loadDictionaries()
+        {
+            synchronized(TokenizerBuilder.class)
+            {
+                if(system_dictionary == null)
+                {
+                    super.loadDictionaries();
+                    system_dictionary = this;
+                    return;
+                }
+                doubleArrayTrie = system_dictionary.doubleArrayTrie;
+                connectionCosts = system_dictionary.connectionCosts;
+                tokenInfoDictionary = system_dictionary.tokenInfoDictionary;
+                unknownDictionary = system_dictionary.unknownDictionary;
+                characterDefinitions = system_dictionary.characterDefinitions;
+                insertedDictionary = system_dictionary.insertedDictionary;
+            }
+        }
+        
+        static CompiledUserDictionary user_dictionary(Path csv, byte[] bytes, byte[] hash) throws IOException
+        {
+            TokenizerBuilder features = new TokenizerBuilder(null);
+            return CompiledUserDictionary.load(csv, bytes, hash, features.totalFeatures, features.readingFeature, features.partOfSpeechFeature);
+        }
+    }
+    
+    private ThreadLocal<Tokenizer> thread_tokenizer = new ThreadLocal<>();
+    
+    // makes sure the system dictionary is loaded before anything gets analyzed
+    private void preload_tokenizer()
+    {
+        get_tokenizer();
+    }
+    
+    // this thread's tokenizer, which it keeps for as long as it lives
+    private Tokenizer get_tokenizer()
+    {
+        Tokenizer tokenizer = thread_tokenizer.get();
+        if(tokenizer == null)
+        {
+            tokenizer = new TokenizerBuilder(userdict).build();
+            thread_tokenizer.set(tokenizer);
+        }
+        return tokenizer;
+    }
+    
+    // Every token of the same dictionary entry makes the same term, so a thread only puts together the identity_of
+    // and spelling_of an entry the first time it sees it. All tokens of the entry then count under those same
+    // strings, which already know their hash and compare equal without looking at their text. The strings get
+    // interned for the run, so tables filled on different threads share them too, and are let go of once it's done.
+    // kuromoji keeps which entry a token came from to itself, in a wordId field that gets read reflectively; if it
+    // can't be, and for unknown words, which share a few entries between all of them, the strings get put together
+    // for every token. The first run in a process that has to do without it says so, see warn_without_word_id.
+    private static final MethodHandle word_id = word_id_getter();
+    private static final AtomicBoolean warned_without_word_id = new AtomicBoolean(false);
+    private ThreadLocal<TermCache> term_caches = new ThreadLocal<>(); // only has caches during a run
+    
+    private static MethodHandle word_id_getter()
+    {
+        for(Class<?> type = Token.class; type != null; type = type.getSuperclass())
+        {
+            try
+            {
+                Field field = type.getDeclaredField("wordId");
+                field.setAccessible(true);
+                return MethodHandles.lookup().unreflectGetter(field).asType(MethodType.methodType(int.class, Token.class));
+            }
+            catch (NoSuchFieldException e)
+            {
+                // declared further up
+            }
+            catch (ReflectiveOperationException | RuntimeException e)
+            {
+                return null;
+            }
+        }
+        return null;
+    }
+    
+    // so that a kuromoji that renamed or moved wordId doesn't quietly make every run slower
+    private static void warn_without_word_id(BiConsumer<String, Double> update)
+    {
+        if(word_id == null && warned_without_word_id.compareAndSet(false, true))
+            update.accept("Can't tell which dictionary entry tokens come from (no wordId in kuromoji's Token), so every token's term gets put together from scratch", -1.0);
+    }
+    
+    // the dictionary entry token came from, with user dictionary entries above 2^32, or -1 for unknown words
+    private static long entry_of(Token token)
+    {
+        if(!token.isKnown() && !token.isUser())
+            return -1;
+        int id;
+        try
+        {
+            id = (int)word_id.invokeExact(token);
+        }
+        catch (Throwable e)
+        {
+            throw new IllegalStateException(e);
+        }
+        return (token.isUser() ? 1L<<32 : 0) | (id & 0xFFFFFFFFL);
+    }
+    
+    // identities and spellings by dictionary entry, for one thread
+    private static class TermCache
+    {
+        private long[] entries = new long[1024]; // entry + 1, 0 for free slots
+        String[] identities = new String[1024];
+        String[] spellings = new String[1024];
+        private int size = 0;
+        private final ConcurrentHashMap<String, String> interned; // shared with the other threads, or null
+        
+        TermCache(ConcurrentHashMap<String, String> interned)
+        {
+            this.interned = interned;
+        }
+        
+        String intern(String text)
+        {
+            if(text == null || interned == null)
+                return text;
+            String known = interned.putIfAbsent(text, text);
+            return known != null ? known : text;
+        }
+        
+        // where entry is, or goes if it's not there yet
+        int slot_of(long entry)
+        {
+            if(size*2 >= entries.length)
+                grow();
+            int mask = entries.length - 1;
+            int i = (int)((entry*0x9E3779B97F4A7C15L) >>> 32) & mask;
+            while(entries[i] != 0 && entries[i] != entry + 1)
+                i = (i + 1) & mask;
+            return i;
+        }
+        
+        boolean has(int slot)
+        {
+            return entries[slot] != 0;
+        }
+        
+        void put(int slot, long entry, String identity, String spelling)
+        {
+            entries[slot] = entry + 1;
+            identities[slot] = identity;
+            spellings[slot] = spelling;
+            size++;
+        }
+        
+        private void grow()
+        {
+            long[] old_entries = entries;
+            String[] old_identities = identities;
+            String[] old_spellings = spellings;
+            entries = new long[old_entries.length*2];
+            identities = new String[entries.length];
+            spellings = new String[entries.length];
+            size = 0;
+            for(int i = 0; i < old_entries.length; i++)
+            {
+                if(old_entries[i] != 0)
+                    put(slot_of(old_entries[i] - 1), old_entries[i] - 1, old_identities[i], old_spellings[i]);
+            }
+        }
+    }
+    
+    private static class LineBatch
+    {
+        long first_index;
+        ArrayList<String> lines = new ArrayList<>();
+        ArrayList<String> texts = new ArrayList<>();
+    }
+    private static final int batch_size = 256;
+    // what analyze_stream queues up to be counted besides batches
+    private static final Future<TermEvents> end_of_input = new FutureTask<>(() -> null);
+    private static final Future<TermEvents> checkpoint_marker = new FutureTask<>(() -> null);
+    
+    boolean run(String in_name, OutputStream out, BiConsumer<String, Double> update) throws IOException
+    {
+        return run(Collections.singletonList(in_name), out, update);
+    }
+    
+    // in_names can be files, directories and globs, see collect_inputs. The frequency list gets written to out as
+    // utf-8, which is flushed but left open. Returns whether the run got all the way to the end, so a caller can tell
+    // a finished list from one that was cut short by an error or cancel().
+    boolean run(List<String> in_names, OutputStream out, BiConsumer<String, Double> update) throws IOException
+    {
+        try
+        {
+            return run_names(in_names, out, update);
+        }
+        finally
+        {
+            // a cancel() only ever stops one run, so the session can run again afterwards
+            cancelled = false;
+        }
+    }
+    
+    private boolean run_names(List<String> in_names, OutputStream out, BiConsumer<String, Double> update) throws IOException
+    {
+        String ngram_conflict = ngram_conflict();
+        if(ngram_conflict != null)
+        {
+            update.accept(ngram_conflict, 0.0);
+            return false;
+        }
+        if(config.ngram_length > 1 && (config.spill_threshold > 0 || config.per_source_counts || config.binary_output != null || config.checkpoint_file != null || config.base_file != null || config.save_file != null))
+        {
+            update.accept("N-grams can't be combined with --spill, --per-source, --binary, checkpoints or snapshots", 0.0);
+            return false;
+        }
+        if(config.spill_threshold > 0 && (config.checkpoint_file != null || config.base_file != null || config.save_file != null))
+        {
+            update.accept("Checkpoints and snapshots need every term in memory and can't be combined with spilling", 0.0);
+            return false;
+        }
+        if(config.per_source_counts && (config.deduplicate_longer_than > 0 || config.spill_threshold > 0 || config.binary_output != null || config.checkpoint_file != null || config.base_file != null || config.save_file != null))
+        {
+            update.accept("Per-source counts can't be combined with -m, --spill, --binary, checkpoints or snapshots", 0.0);
+            return false;
+        }
+        
+        for(String name : in_names)
+        {
+            if(name.trim().isEmpty())
+            {
+                update.accept("No input file given", 0.0);
+                return false;
+            }
+        }
+        
+        ArrayList<InputSource> inputs;
+        try
+        {
+            inputs = InputSource.of(collect_inputs(in_names));
+        }
+        catch (NoSuchFileException e)
+        {
+            update.accept("No such file: " + e.getFile(), 0.0);
+            return false;
+        }
+        catch (IOException e)
+        {
+            update.accept("Failed to find input files", 0.0);
+            return false;
+        }
+        completed = false;
+        metrics = RunMetrics.start(config.metrics_file, config.metrics_interval);
+        ConcurrentHashMap<String, String> interned = new ConcurrentHashMap<>();
+        term_caches = ThreadLocal.withInitial(() -> word_id != null ? new TermCache(interned) : null);
+        synchronized(previews)
+        {
+            previews.clear();
+        }
+        thread_preview = ThreadLocal.withInitial(this::new_preview);
+        try
+        {
+            if(inputs.isEmpty())
+                update.accept("No input files found", 0.0);
+            else
+                run(inputs, out, update);
+        }
+        finally
+        {
+            metrics.finish(false);
+            InputSource.close(inputs);
+            term_caches = new ThreadLocal<>();
+        }
+        return completed;
+    }
+    
+    private void run(ArrayList<InputSource> inputs, OutputStream out, BiConsumer<String, Double> update) throws IOException
+    {
+        source_names = new String[inputs.size()];
+        for(int i = 0; i < inputs.size(); i++)
+            source_names[i] = inputs.get(i).name();
+        
+        metrics.enter("loading");
+        if(!load_user_files(update))
+            return;
+        int threads = config.worker_threads > 0 ? config.worker_threads : Runtime.getRuntime().availableProcessors();
+        
+        Checkpoint state = null;
+        try
+        {
+            if(config.resume && config.checkpoint_file != null && Files.exists(Paths.get(config.checkpoint_file)))
+            {
+                update.accept("Loading checkpoint", -1.0);
+                state = Checkpoint.read(Paths.get(config.checkpoint_file));
+                if(!state.matchesInputs(inputs))
+                {
+                    update.accept("Input changed since the checkpoint was written", 0.0);
+                    return;
+                }
+            }
+            else if(config.base_file != null)
+            {
+                update.accept("Loading snapshot", -1.0);
+                state = Checkpoint.read(Paths.get(config.base_file));
+                state.source = 0;
+                state.offset = 0;
+                state.source_first_lines = new long[0];
+            }
+        }
+        catch (IOException e)
+        {
+            update.accept("Failed to load snapshot", 0.0);
+            return;
+        }
+        int options = Checkpoint.options_of(config);
+        if(state != null && state.options != options)
+        {
+            update.accept("Snapshot was made with different -l, -x, -r, -rc or -a settings", 0.0);
+            return;
+        }
+        String settings = Checkpoint.settings_of(config, userdict_hash, userfilters_hash);
+        if(state != null && !state.settings.equals(settings))
+        {
+            update.accept("Snapshot was made with different filters or user files (" + state.settings + ") than this run (" + settings + ")", 0.0);
+            return;
+        }
+        if(state == null)
+        {
+            state = new Checkpoint();
+            state.options = options;
+            state.settings = settings;
+        }
+        
+        if(userdict != null)
+            update.accept("Initializing kuromoji with user dictionary", -1.0);
+        else
+            update.accept("Initializing kuromoji without user dictionary", -10.0);
+        
+        FrequencySpill spill = config.spill_threshold > 0 ? new FrequencySpill(config.spill_threshold, options) : null;
+        try
+        {
+            run(inputs, out, threads, options, state, spill, update);
+        }
+        finally
+        {
+            // whatever got spilled before the run stopped
+            if(spill != null)
+                spill.delete_runs();
+        }
+    }
+    
+    private void run(ArrayList<InputSource> inputs, OutputStream out, int threads, int options, Checkpoint state, FrequencySpill spill, BiConsumer<String, Double> update) throws IOException
+    {
+        miniFrequencyData data;
+        try
+        {
+            // progress is measured in bytes, so the input only has to be read once
+            long in_size = 0;
+            for(InputSource input : inputs)
+                in_size += input.size;
+            preload_tokenizer();
+            warn_without_word_id(update);
+            metrics.enter("analyzing");
+            
+            // deduplication depends on the order lines get seen in, and a checkpoint needs to know that everything
+            // before some point in the input is done, so both need everything to go through one reader
+            ArrayList<ChunkedInput.Chunk> chunks = null;
+            if((threads > 1 || config.per_source_counts) && config.deduplicate_longer_than <= 0 && config.checkpoint_file == null)
+            {
+                update.accept("Splitting input", -1.0);
+                chunks = new ArrayList<>();
+                long target_size = Math.max(1<<16, in_size/(threads*8));
+                for(int source = 0; source < inputs.size() && chunks != null; source++)
+                {
+                    if(!ChunkedInput.split(inputs.get(source), source, chunks, target_size, config.skip_furigana_formatting))
+                        chunks = null;
+                }
+            }
+            if(chunks != null)
+            {
+                data = analyze_chunks(chunks, inputs.size(), in_size, threads, spill, update);
+                if(data != null && state.data != null)
+                {
+                    // lines of the new input come after the ones already in the snapshot
+                    long base_lines = state.data.line_count;
+                    long line_count = base_lines + data.line_count;
+                    data.renumber((line) -> line + base_lines);
+                    data = miniFrequencyData.merge(Arrays.asList(state.data, data));
+                    data.line_count = line_count;
+                    for(int source = 0; source < source_first_lines.length; source++)
+                        source_first_lines[source] += base_lines;
+                }
+            }
+            else if(config.per_source_counts)
+            {
+                update.accept("Input can't be split up for per-source counts", 0.0);
+                return;
+            }
+            else
+                data = analyze_stream(inputs, in_size, threads, spill, state, update);
+        }
+        catch (InterruptedException e)
+        {
+            throw new InterruptedIOException();
+        }
+        catch (IOException e)
+        {
+            update.accept("File access error occurred while reading input.", 0.0);
+            return;
+        }
+        catch (IllegalStateException e)
+        {
+            // more terms than fit into an n-gram's key
+            update.accept(e.getMessage(), 0.0);
+            return;
+        }
+        if(data == null)
+            return;
+        if(cancelled)
+        {
+            update.accept("Cancelled", 0.0);
+            return;
+        }
+        metrics.distinct_terms = spill != null && spill.spilled() ? -1 : data.size();
+        
+        if(config.save_file != null)
+        {
+            update.accept("Saving snapshot", -1.0);
+            metrics.enter("saving");
+            Checkpoint snapshot = new Checkpoint();
+            snapshot.options = options;
+            snapshot.settings = state.settings;
+            snapshot.data = data;
+            snapshot.seen_lines = state.seen_lines;
+            try
+            {
+                snapshot.write(Paths.get(config.save_file));
+            }
+            catch (IOException e)
+            {
+                update.accept("File access error occurred while saving snapshot.", 0.0);
+                return;
+            }
+        }
+        
+        update.accept("Writing output", 1.0);
+        metrics.enter("writing");
+        if(config.binary_output != null)
+        {
+            try
+            {
+                if(spill != null && spill.spilled())
+                    spill.writeList(Paths.get(config.binary_output), data.line_count);
+                else
+                {
+                    try (FrequencyList.Writer list = new FrequencyList.Writer(Paths.get(config.binary_output), options, data.line_count))
+                    {
+                        data.writeList(list);
+                    }
+                }
+            }
+            catch (IOException e)
+            {
+                update.accept("File access error occurred while writing frequency list.", 0.0);
+                return;
+            }
+        }
+        else if(spill != null && spill.spilled())
+        {
+            try
+            {
+                TsvWriter rows = new TsvWriter(out);
+                spill.write(rows, config.output_top, config.output_min_count, line_labels());
+                rows.flush();
+            }
+            catch (IOException e)
+            {
+                update.accept("File access error occurred while merging spilled terms.", 0.0);
+                return;
+            }
+        }
+        else
+        {
+            try
+            {
+                TsvWriter rows = new TsvWriter(out);
+                data.writeSortedFrequencyList(rows, config.output_top, config.output_min_count, line_labels());
+                rows.flush();
+            }
+            catch (IOException e)
+            {
+                update.accept("File access error occurred while writing output.", 0.0);
+                return;
+            }
+        }
+        if(config.checkpoint_file != null)
+            Files.deleteIfExists(Paths.get(config.checkpoint_file));
+        metrics.finish(true);
+        completed = true;
+        update.accept("Done", -1.0);
+        
+        userdict = null;
+        userdict_hash = null;
+    }
+    
+    // what's wrong with the -n settings, or null if nothing is
+    private String ngram_conflict()
+    {
+        if(config.ngram_length < 1 || config.ngram_length > 3)
+            return "N-grams can only be 2 or 3 terms long";
+        if(config.ngram_length > 1 && (config.enable_append_line || config.enable_sentence_reading))
+            return "N-grams can't be combined with -a or -r";
+        return null;
+    }
+    
+    // userdict.csv and userfilters.csv, if they're enabled. Returns false if they couldn't be loaded.
+    private boolean load_user_files(BiConsumer<String, Double> update)
+    {
+        userdict = null;
+        userdict_hash = null;
+        userfilters_hash = null;
+        thread_tokenizer = new ThreadLocal<>();
+        if(config.enable_userdictionary)
+        {
+            update.accept("Loading user dictionary", -1.0);
+            try
+            {
+                byte[] bytes = Files.readAllBytes(Paths.get(config.userdict_file));
+                userdict_hash = sha256(bytes);
+                userdict = TokenizerBuilder.user_dictionary(Paths.get(config.userdict_file), bytes, userdict_hash);
+            }
+            catch (IOException e)
+            {
+                userdict = null;
+                update.accept("Failed to load user dictionary", -1.0);
+                return false;
+            }
+        }
+        
+        if(config.enable_userfilter)
+        {
+            update.accept("Loading user filter", -1.0);
+            try
+            {
+                init_filter();
+            }
+            catch (UnsupportedEncodingException e)
+            {
+                update.accept("Failed to open userfilters.csv as UTF-8.", 0.0);
+                return false;
+            }
+            catch (IOException e)
+            {
+                update.accept("File access error occurred when initializing user filters.", 0.0);
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    // Loads userdict.csv, userfilters.csv and the tokenizer for analyze_documents. Returns false if they couldn't be loaded.
+    boolean load(BiConsumer<String, Double> update) throws IOException
+    {
+        if(!load_user_files(update))
+            return false;
+        if(userdict != null)
+            update.accept("Initializing kuromoji with user dictionary", -1.0);
+        else
+            update.accept("Initializing kuromoji without user dictionary", -10.0);
+        preload_tokenizer();
+        warn_without_word_id(update);
+        return true;
+    }
+    
+    // Loads everything once and then analyzes text sent to AnalyzerServer on localhost until the process gets stopped.
+    void serve(int port, BiConsumer<String, Double> update) throws IOException
+    {
+        if(config.spill_threshold > 0 || config.per_source_counts || config.binary_output != null || config.checkpoint_file != null || config.base_file != null || config.save_file != null)
+        {
+            update.accept("The server can't be combined with --spill, --per-source, --binary, checkpoints or snapshots", 0.0);
+            return;
+        }
+        String ngram_conflict = ngram_conflict();
+        if(ngram_conflict != null)
+        {
+            update.accept(ngram_conflict, 0.0);
+            return;
+        }
+        if(!load(update))
+            return;
+        int threads = config.worker_threads > 0 ? config.worker_threads : Runtime.getRuntime().availableProcessors();
+        metrics = RunMetrics.start(config.metrics_file, config.metrics_interval);
+        metrics.enter("serving");
+        try
+        {
+            AnalyzerServer.start(port, threads, this);
+        }
+        catch (IOException e)
+        {
+            update.accept("Failed to listen on port " + port, 0.0);
+            return;
+        }
+        update.accept("Listening on http://127.0.0.1:" + port + "/", -1.0);
+    }
+    
+    // Counts the terms of documents that are already in memory, numbering their lines one after another like
+    // input files. Only reads the session, so once it's loaded any number of these can run at once. Returns null if
+    // some line doesn't have the column -i asks for.
+    miniFrequencyData analyze_documents(List<String> documents) throws IOException
+    {
+        miniFrequencyData data = new miniFrequencyData(config.ngram_length);
+        Tokenizer tokenizer = get_tokenizer();
+        // the strings of one request don't need to be shared with anything, or kept past it
+        TermCache terms = word_id != null ? new TermCache(null) : null;
+        TermEvents events = new TermEvents();
+        LineDeduplicator seen_lines = config.deduplicate_longer_than > 0 ? new LineDeduplicator(config.deduplicate_false_positive_rate) : null;
+        long line_index = 0;
+        for(String document : documents)
+        {
+            LineReader in = new LineReader(new ByteArrayInputStream(document.getBytes(StandardCharsets.UTF_8)), config.skip_furigana_formatting);
+            String line;
+            while((line = in.readLine()) != null)
+            {
+                String text = sentence_of(line);
+                if(text == null)
+                    return null;
+                if(text.length() > config.deduplicate_longer_than && seen_lines != null && !seen_lines.add(text))
+                    continue;
+                analyze_line(tokenizer, terms, line, text, line_index++, events);
+                count(events, data);
+            }
+        }
+        data.line_count = line_index;
+        return data;
+    }
+    
+    // Files, directories (everything in them, recursively) and globs like books/**/*.txt, the last two sorted by path.
+    // A name that exists is always taken as it is, even if it has characters like [ in it that globs use. A blank name
+    // or a plain path that doesn't exist throws NoSuchFileException, rather than standing for the working directory.
+    static ArrayList<Path> collect_inputs(List<String> names) throws IOException
+    {
+        ArrayList<Path> inputs = new ArrayList<>();
+        for(String name : names)
+        {
+            if(name.trim().isEmpty())
+                throw new NoSuchFileException(name, null, "no file name given");
+            Path path = literal_path(name);
+            if(path != null)
+            {
+                if(!Files.exists(path))
+                    throw new NoSuchFileException(name);
+                if(Files.isDirectory(path))
+                    add_files(inputs, path, null);
+                else
+                    inputs.add(path);
+                continue;
+            }
+            // glob syntax takes \ as an escape, so on windows paths written with \ have to be turned around first
+            String glob = File.separatorChar == '\\' ? name.replace('\\', '/') : name;
+            int wildcard = first_wildcard(glob);
+            // walk from the last directory before the first wildcard
+            int cut = glob.lastIndexOf('/', wildcard);
+            Path base = cut < 0 ? Paths.get("") : Paths.get(cut == 0 ? glob.substring(0, 1) : glob.substring(0, cut));
+            if(Files.isDirectory(base))
+                add_files(inputs, base, FileSystems.getDefault().getPathMatcher("glob:" + zero_or_more_directories(glob)));
+        }
+        return inputs;
+    }
+    
+    // the path if name is a plain path or an existing file or directory, null if it's a glob to match against
+    private static Path literal_path(String name)
+    {
+        Path path;
+        try
+        {
+            path = Paths.get(name);
+        }
+        catch (InvalidPathException e)
+        {
+            // windows doesn't allow * and ? in file names
+            return null;
+        }
+        if(first_wildcard(name) == name.length() || Files.exists(path))
+            return path;
+        return null;
+    }
+    
+    private static int first_wildcard(String name)
+    {
+        for(int i = 0; i < name.length(); i++)
+            if("*?[{".indexOf(name.charAt(i)) >= 0)
+                return i;
+        return name.length();
+    }
+    
+    // PathMatcher's **/ needs at least one directory, so books/**/*.txt wouldn't match books/a.txt. Every **/ that
+    // isn't already inside a {} group becomes {**/,}, which also matches nothing.
+    private static String zero_or_more_directories(String glob)
+    {
+        StringBuilder pattern = new StringBuilder();
+        int depth = 0;
+        for(int i = 0; i < glob.length(); i++)
+        {
+            char c = glob.charAt(i);
+            if(c == '\\' && i + 1 < glob.length())
+            {
+                pattern.append(c).append(glob.charAt(++i));
+                continue;
+            }
+            if(c == '{') depth++;
+            if(c == '}') depth--;
+            if(depth == 0 && glob.startsWith("**/", i) && (i == 0 || glob.charAt(i - 1) == '/'))
+            {
+                pattern.append("{**/,}");
+                i += 2;
+                continue;
+            }
+            pattern.append(c);
+        }
+        return pattern.toString();
+    }
+    
+    private static void add_files(ArrayList<Path> inputs, Path directory, PathMatcher matcher) throws IOException
+    {
+        try (Stream<Path> paths = Files.walk(directory))
+        {
+            paths.filter((path) -> Files.isRegularFile(path) && (matcher == null || matcher.matches(path))).sorted().forEach(inputs::add);
+        }
+    }
+    
+    // how -c shows the line a term first showed up in
+    String line_label(long line)
+    {
+        if(source_names == null || source_names.length < 2 || source_first_lines == null || line < source_first_lines[0])
+            return String.valueOf(line);
+        // the last file starting at or before line, which skips over empty files starting at the same line
+        int low = 0;
+        int high = source_first_lines.length - 1;
+        while(low < high)
+        {
+            int middle = (low + high + 1) >>> 1;
+            if(source_first_lines[middle] <= line)
+                low = middle;
+            else
+                high = middle - 1;
+        }
+        return source_names[low] + ":" + (line - source_first_lines[low]);
+    }
+    
+    // line_label for the output if -c asks for line numbers, otherwise null
+    LongFunction<String> line_labels()
+    {
+        return config.enable_linecounter ? this::line_label : null;
+    }
+    
+    // Streams frequency lists written with binary_output together, numbering their lines one after another in the
+    // order they're given in. Only one term per list is kept in memory while merging, plus the rows being sorted.
+    void merge(List<String> in_names, OutputStream out, BiConsumer<String, Double> update) throws IOException
+    {
+        long[] offsets = new long[in_names.size()];
+        long line_count = 0;
+        int options = -1;
+        update.accept("Reading frequency lists", -1.0);
+        for(int i = 0; i < in_names.size(); i++)
+        {
+            try (FrequencyList.Reader reader = new FrequencyList.Reader(Paths.get(in_names.get(i)), 0))
+            {
+                if(options >= 0 && reader.options != options)
+                {
+                    update.accept("Frequency lists were made with different -l, -x, -r, -rc or -a settings", 0.0);
+                    return;
+                }
+                options = reader.options;
+                offsets[i] = line_count;
+                line_count += reader.line_count;
+            }
+            catch (IOException e)
+            {
+                update.accept("Failed to read frequency list " + in_names.get(i), 0.0);
+                return;
+            }
+        }
+        // the merged list has the same options as the ones it's made of
+        FrequencySpill lists = new FrequencySpill(config.spill_threshold > 0 ? config.spill_threshold : merge_rows_in_memory, Math.max(options, 0));
+        for(int i = 0; i < in_names.size(); i++)
+            lists.addList(Paths.get(in_names.get(i)), offsets[i]);
+        
+        update.accept("Merging frequency lists", -1.0);
+        try
+        {
+            if(config.binary_output != null)
+                lists.writeList(Paths.get(config.binary_output), line_count);
+            else
+            {
+                TsvWriter rows = new TsvWriter(out);
+                lists.write(rows, config.output_top, config.output_min_count, line_labels());
+                rows.flush();
+            }
+        }
+        catch (IOException e)
+        {
+            update.accept("File access error occurred while merging frequency lists.", 0.0);
+            return;
+        }
+        update.accept("Done", -1.0);
+    }
+    
+    // the part of the line that gets analyzed, or null if it doesn't have enough columns
+    private String sentence_of(String line)
+    {
+        if (config.sentence_index > -1) {
+            String[] split = line.split("\\t");
+            if (split.length > config.sentence_index)
+                return split[config.sentence_index];
+            else
+                return null;
+        }
+        return line;
+    }
+    
+    private static IOException unwrap(ExecutionException e)
+    {
+        if(e.getCause() instanceof IOException)
+            return (IOException)e.getCause();
+        if(e.getCause() instanceof RuntimeException)
+            throw (RuntimeException)e.getCause();
+        if(e.getCause() instanceof Error)
+            throw (Error)e.getCause();
+        return new IOException(e.getCause());
+    }
+    
+    // hands a table that got too big over to the spill and gives back the one to keep counting into
+    private miniFrequencyData spill_if_full(miniFrequencyData data, FrequencySpill spill, int threads) throws IOException
+    {
+        if(spill == null || data.size() < Math.max(1, config.spill_threshold/threads))
+            return data;
+        spill.add(data);
+        return new miniFrequencyData(config.ngram_length);
+    }
+    
+    // once anything got spilled, everything left in memory has to go the same way so the spill can merge all of it
+    private static miniFrequencyData spill_rest(List<miniFrequencyData> tables, FrequencySpill spill) throws IOException
+    {
+        for(miniFrequencyData table : tables)
+            spill.add(table);
+        return new miniFrequencyData();
+    }
+    
+    // Reads the input files one after another on this thread and hands the lines out in batches to workers that
+    // tokenize and filter them, while one more thread counts what they leave in the order the batches were read in,
+    // so the table comes out the same however many workers there are. Reading, tokenizing and counting all happen
+    // at once, and the queue of batches waiting to be counted is bounded, so reading waits whenever the others fall
+    // behind and only so many batches are ever in memory. Picks up wherever state left off and keeps it up to date
+    // at every checkpoint. Returns null if the run had to be stopped.
+    private miniFrequencyData analyze_stream(List<InputSource> inputs, long in_size, int threads, FrequencySpill spill, Checkpoint state, BiConsumer<String, Double> update) throws IOException, InterruptedException
+    {
+        LineDeduplicator seen_lines = null;
+        if(config.deduplicate_longer_than > 0)
+            seen_lines = state.seen_lines != null ? state.seen_lines : new LineDeduplicator(config.deduplicate_false_positive_rate);
+        state.seen_lines = seen_lines;
+        metrics.seen_lines = seen_lines;
+        
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        ExecutorService counter = Executors.newSingleThreadExecutor();
+        // batches in the order they were read in, each one counted once its worker is done with it
+        BlockingQueue<Future<TermEvents>> pending = new ArrayBlockingQueue<>(threads*4);
+        // at a checkpoint the counter hands over its table and waits until the checkpoint is written
+        BlockingQueue<miniFrequencyData> handoff = new ArrayBlockingQueue<>(1);
+        CyclicBarrier checkpoint_done = new CyclicBarrier(2);
+        miniFrequencyData start_data = state.data != null ? state.data : new miniFrequencyData(config.ngram_length);
+        Future<miniFrequencyData> counted = counter.submit(() ->
+        {
+            miniFrequencyData data = start_data;
+            Future<TermEvents> next;
+            while ((next = pending.take()) != end_of_input)
+            {
+                if(next == checkpoint_marker)
+                {
+                    handoff.put(data);
+                    checkpoint_done.await();
+                    continue;
+                }
+                count(next.get(), data);
+                data = spill_if_full(data, spill, 1);
+            }
+            update_preview(data, true);
+            return data;
+        });
+
+        String line;
+        long line_index = start_data.line_count;
+        LineBatch batch = new LineBatch();
+        Path checkpoint_path = config.checkpoint_file != null ? Paths.get(config.checkpoint_file) : null;
+        long next_checkpoint = System.nanoTime() + config.checkpoint_interval*1000000000L;
+        long[] first_lines = Arrays.copyOf(state.source_first_lines, inputs.size());
+        source_first_lines = first_lines;
+        long done_bytes = 0; // in the inputs before the current one
+        for(int source = 0; source < state.source; source++)
+            done_bytes += inputs.get(source).size;
+
+        try
+        {
+            for(int source = state.source; source < inputs.size(); source++)
+            {
+                long start_offset = source == state.source ? state.offset : 0;
+                if(source >= state.source_first_lines.length)
+                    first_lines[source] = line_index;
+                try (InputSource.Reader in = inputs.get(source).open(start_offset, config.skip_furigana_formatting))
+                {
+                    while ((line = read_line(in.lines)) != null)
+                    {
+                        if(cancelled)
+                        {
+                            update.accept("Cancelled", 0.0);
+                            return null;
+                        }
+                        String text = sentence_of(line);
+                        if (text == null)
+                        {
+                            update.accept("Sentence index out of range", 0.0);
+                            return null;
+                        }
+            
+                        // update UI less often with very long input files
+                        double progress = (done_bytes + in.consumed())/(double)in_size;
+                        if (in_size > 4000000)
+                        {
+                            if(line_index % 491 == 0)
+                                update.accept("Parsing file: " + line_index + " lines", progress);
+                        }
+                        else if (in_size > 400000)
+                        {
+                            if(line_index % 17 == 0)
+                                update.accept("Parsing file: " + line_index + " lines", progress);
+                        }
+                        else
+                            update.accept("Parsing file: " + line_index + " lines", progress);
+                        
+                        if(text.length() > config.deduplicate_longer_than && seen_lines != null && !seen_lines.add(text))
+                            continue;
+                        
+                        if(batch.lines.isEmpty())
+                            batch.first_index = line_index;
+                        batch.lines.add(line);
+                        batch.texts.add(text);
+                        if(batch.lines.size() >= batch_size)
+                        {
+                            submit(batch, pool, pending, counted);
+                            batch = new LineBatch();
+                        }
+                        line_index++;
+                        
+                        if(checkpoint_path != null && System.nanoTime() - next_checkpoint >= 0)
+                        {
+                            update.accept("Writing checkpoint", -1.0);
+                            if(!batch.lines.isEmpty())
+                            {
+                                submit(batch, pool, pending, counted);
+                                batch = new LineBatch();
+                            }
+                            put(pending, checkpoint_marker, counted);
+                            miniFrequencyData data = take(handoff, counted);
+                            data.line_count = line_index;
+                            state.data = data;
+                            state.source = source;
+                            state.offset = in.position();
+                            state.source_first_lines = Arrays.copyOf(first_lines, source + 1);
+                            state.setInputs(inputs);
+                            state.write(checkpoint_path);
+                            checkpoint_done.await();
+                            next_checkpoint = System.nanoTime() + config.checkpoint_interval*1000000000L;
+                        }
+                    }
+                }
+                done_bytes += inputs.get(source).size;
+            }
+            
+            if(seen_lines != null)
+                update.accept("Dropped " + seen_lines.dropped() + " duplicate lines", -1.0);
+            
+            if(!batch.lines.isEmpty())
+                submit(batch, pool, pending, counted);
+            put(pending, end_of_input, counted);
+            miniFrequencyData data = counted.get();
+            if(spill != null && spill.spilled())
+                data = spill_rest(Collections.singletonList(data), spill);
+            data.line_count = line_index;
+            return data;
+        }
+        catch (ExecutionException e)
+        {
+            throw unwrap(e);
+        }
+        catch (BrokenBarrierException e)
+        {
+            throw new InterruptedException();
+        }
+        finally
+        {
+            pool.shutdownNow();
+            counter.shutdownNow();
+        }
+    }
+    
+    // queues batch up to be counted and has a worker tokenize it
+    private void submit(LineBatch batch, ExecutorService pool, BlockingQueue<Future<TermEvents>> pending, Future<?> counter) throws InterruptedException, ExecutionException
+    {
+        FutureTask<TermEvents> task = new FutureTask<>(() ->
+        {
+            Tokenizer tokenizer = get_tokenizer();
+            TermCache terms = term_caches.get();
+            TermEvents events = new TermEvents();
+            for(int i = 0; i < batch.lines.size(); i++)
+                analyze_line(tokenizer, terms, batch.lines.get(i), batch.texts.get(i), batch.first_index + i, events);
+            return events;
+        });
+        put(pending, task, counter);
+        pool.execute(task);
+    }
+    
+    // waits for room in queue, without hanging if the one taking from it died instead
+    private static <T> void put(BlockingQueue<T> queue, T item, Future<?> taker) throws InterruptedException, ExecutionException
+    {
+        while(!queue.offer(item, 250, TimeUnit.MILLISECONDS))
+        {
+            if(taker.isDone())
+                taker.get();
+        }
+    }
+    
+    // waits for something in queue, without hanging if the one putting into it died instead
+    private static <T> T take(BlockingQueue<T> queue, Future<?> giver) throws InterruptedException, ExecutionException
+    {
+        T item;
+        while((item = queue.poll(250, TimeUnit.MILLISECONDS)) == null)
+        {
+            if(giver.isDone())
+                giver.get();
+        }
+        return item;
+    }
+    
+    // Every worker maps and reads its own chunks of the input files. Until all of them are done, lines are numbered
+    // with the chunk index in the upper 32 bits and the line within the chunk in the lower 32, which sorts the same
+    // as the real line numbers do. For per-source counts, workers start a new shard whenever they move on to
+    // another file and keep the ones they're done with by file. Returns null if the run had to be stopped.
+    private miniFrequencyData analyze_chunks(ArrayList<ChunkedInput.Chunk> chunks, int sources, long in_size, int threads, FrequencySpill spill, BiConsumer<String, Double> update) throws IOException, InterruptedException
+    {
+        AtomicInteger next_chunk = new AtomicInteger();
+        AtomicLong bytes_done = new AtomicLong();
+        AtomicLong lines_done = new AtomicLong();
+        AtomicBoolean out_of_range = new AtomicBoolean();
+        long[] line_counts = new long[chunks.size()];
+        ArrayList<ArrayList<miniFrequencyData>> source_tables = new ArrayList<>();
+        for(int source = 0; source < sources; source++)
+            source_tables.add(new ArrayList<>());
+        
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        ArrayList<Future<miniFrequencyData>> shards = new ArrayList<>();
+        try
+        {
+            for(int i = 0; i < threads; i++)
+            {
+                shards.add(pool.submit(() ->
+                {
+                    miniFrequencyData shard = new miniFrequencyData(config.ngram_length);
+                    int shard_source = -1;
+                    Tokenizer tokenizer = get_tokenizer();
+                    TermCache terms = term_caches.get();
+                    TermEvents events = new TermEvents();
+                    int index;
+                    while((index = next_chunk.getAndIncrement()) < chunks.size() && !out_of_range.get() && !cancelled)
+                    {
+                        ChunkedInput.Chunk chunk = chunks.get(index);
+                        if(config.per_source_counts && chunk.source != shard_source)
+                        {
+                            if(shard_source >= 0)
+                                hand_over(source_tables, shard_source, shard);
+                            shard = new miniFrequencyData(config.ngram_length);
+                            shard_source = chunk.source;
+                        }
+                        long chunk_ordinal = (long)index << 32;
+                        long line_index = 0;
+                        long reported = 0;
+                        try (InputSource.Reader in = chunk.open(config.skip_furigana_formatting))
+                        {
+                            String line;
+                            while(!cancelled && (line = read_line(in.lines)) != null)
+                            {
+                                String text = sentence_of(line);
+                                if(text == null)
+                                {
+                                    out_of_range.set(true);
+                                    break;
+                                }
+                                analyze_line(tokenizer, terms, line, text, chunk_ordinal | line_index, events);
+                                count(events, shard);
+                                shard = spill_if_full(shard, spill, threads);
+                                line_index++;
+                                if(line_index % 64 == 0)
+                                {
+                                    bytes_done.addAndGet(in.consumed() - reported);
+                                    lines_done.addAndGet(64);
+                                    reported = in.consumed();
+                                }
+                            }
+                            bytes_done.addAndGet(in.consumed() - reported);
+                        }
+                        lines_done.addAndGet(line_index % 64);
+                        line_counts[index] = line_index;
+                    }
+                    update_preview(shard, true);
+                    if(shard_source >= 0)
+                    {
+                        hand_over(source_tables, shard_source, shard);
+                        shard = new miniFrequencyData(config.ngram_length);
+                    }
+                    return shard;
+                }));
+            }
+            
+            ArrayList<miniFrequencyData> results = new ArrayList<>();
+            for(Future<miniFrequencyData> shard : shards)
+            {
+                while(true)
+                {
+                    try
+                    {
+                        results.add(shard.get(250, TimeUnit.MILLISECONDS));
+                        break;
+                    }
+                    catch (TimeoutException e)
+                    {
+                        update.accept("Parsing file: " + lines_done.get() + " lines", bytes_done.get()/(double)in_size);
+                    }
+                }
+            }
+            if(out_of_range.get())
+            {
+                update.accept("Sentence index out of range", 0.0);
+                return null;
+            }
+            if(cancelled)
+            {
+                update.accept("Cancelled", 0.0);
+                return null;
+            }
+            
+            long[] chunk_first_line = new long[chunks.size()];
+            for(int i = 1; i < chunks.size(); i++)
+                chunk_first_line[i] = chunk_first_line[i-1] + line_counts[i-1];
+            LongUnaryOperator line_number = (ordinal) -> chunk_first_line[(int)(ordinal >>> 32)] + (ordinal & 0xFFFFFFFFL);
+            long[] first_lines = new long[sources];
+            long line_count = 0;
+            for(int source = 0, chunk = 0; source < sources; source++)
+            {
+                first_lines[source] = line_count;
+                for(; chunk < chunks.size() && chunks.get(chunk).source == source; chunk++)
+                    line_count += line_counts[chunk];
+            }
+            source_first_lines = first_lines;
+            for(ArrayList<miniFrequencyData> tables : source_tables)
+                results.addAll(tables);
+            
+            miniFrequencyData data;
+            if(spill != null && spill.spilled())
+            {
+                spill.renumber(line_number);
+                data = spill_rest(results, spill);
+            }
+            else
+            {
+                update.accept("Merging worker results", -1.0);
+                metrics.enter("merging");
+                data = miniFrequencyData.merge(results);
+                data.renumber(line_number);
+            }
+            data.line_count = line_count;
+            if(config.per_source_counts)
+                data.source_tables = source_tables;
+            return data;
+        }
+        catch (ExecutionException e)
+        {
+            throw unwrap(e);
+        }
+        finally
+        {
+            pool.shutdownNow();
+        }
+    }
+    
+    private static void hand_over(ArrayList<ArrayList<miniFrequencyData>> source_tables, int source, miniFrequencyData shard)
+    {
+        synchronized(source_tables)
+        {
+            source_tables.get(source).add(shard);
+        }
+    }
+    
+    // Extra fields only get kept for the line a term first shows up on, so they're only put together for new terms,
+    // and the furigana of the line only gets worked out once however many new terms it has.
+    private class LineExtras implements Supplier<String>
+    {
+        private final List<Token> tokens;
+        private final String line;
+        private String[] furigana = null;
+        private String reading = null; // the whole line with furigana, without cloze tags
+        Token token; // the one the fields are for
+        
+        LineExtras(List<Token> tokens, String line)
+        {
+            this.tokens = tokens;
+            this.line = line;
+        }
+        
+        public String get()
+        {
+            StringJoiner extraFields = new StringJoiner("\t");
+            if(config.enable_sentence_reading)
+                extraFields.add(sentence_reading());
+            if(config.enable_append_line)
+                extraFields.add(line);
+            return extraFields.toString();
+        }
+        
+        private String sentence_reading()
+        {
+            if(furigana == null)
+            {
+                furigana = new String[tokens.size()];
+                TokenFields fields = new TokenFields(); // not of(), which the token being counted is using
+                for(int i = 0; i < furigana.length; i++)
+                    furigana[i] = Utils.toFurigana(fields.reset(tokens.get(i)));
+            }
+            if(!config.enable_sentence_reading_cloze)
+            {
+                if(reading == null)
+                    reading = String.join("", furigana);
+                return reading;
+            }
+            StringBuilder cloze = new StringBuilder();
+            String surface = token.getSurface();
+            for(int i = 0; i < furigana.length; i++)
+            {
+                boolean isCurrentToken = surface.equals(tokens.get(i).getSurface());
+                if (isCurrentToken)
+                    cloze.append("<span class=\"cloze\">");
+                cloze.append(furigana[i]);
+                if (isCurrentToken)
+                    cloze.append("</span>");
+            }
+            return cloze.toString();
+        }
+    }
+    
+    // What makes two tokens the same term. -l takes the spelling out of it and -x the spelling, pronunciation and
+    // accent, which get counted per term instead, see spelling_of.
+    String identity_of(TokenFields token)
+    {
+        String parts = token.pos1()+"\t"+token.pos2()+"\t"+token.pos3();
+        String[] temp;
+        if(config.pull_out_spellings)
+            temp = new String[]{token.form_base(), token.pronunciation_base_form(), token.accent_type(), token.language_type(), parts, token.conjugation_type(), token.lemma(), token.lemma_reading_form()};
+        else if(config.lexeme_only)
+            temp = new String[]{token.language_type(), parts, token.conjugation_type(), token.lemma(), token.lemma_reading_form()};
+        else
+            temp = new String[]{token.written_base_form(), token.form_base(), token.pronunciation_base_form(), token.accent_type(), token.language_type(), parts, token.conjugation_type(), token.lemma(), token.lemma_reading_form()};
+        return StringUtils.join(temp,"\t");
+    }
+    
+    // what identity_of took out of the term, or null without -l and -x
+    String spelling_of(TokenFields token)
+    {
+        if(config.pull_out_spellings)
+            return String.valueOf(token.written_base_form());
+        if(config.lexeme_only)
+            return StringUtils.join(new String[]{token.written_base_form(), token.form_base(), token.pronunciation_base_form(), token.accent_type()},"\t");
+        return null;
+    }
+    
+    // the next line of the input, timed as reading
+    private String read_line(LineReader in) throws IOException
+    {
+        RunMetrics.Counters counters = metrics.counters();
+        counters.start();
+        String line = in.readLine();
+        counters.lap(RunMetrics.reading);
+        return line;
+    }
+    
+    // The terms of some lines that got through the filters, in order, to be counted later and on another thread if
+    // need be. Building a term's identity takes longer than counting it, so that's done here already. A term that
+    // doesn't follow right after the one before it, because it starts a line or comes after a filtered token, starts
+    // a run, and n-grams only get counted within runs.
+    private static class TermEvents
+    {
+        int size = 0;
+        String[] identities = new String[64];
+        String[] spellings = new String[64];
+        long[] lines = new long[64];
+        LineExtras[] extras = new LineExtras[64];
+        Token[] tokens = new Token[64]; // only kept for extras
+        boolean[] run_starts = new boolean[64];
+        private int[] gram = null; // the last terms of the current run
+        
+        void add(String identity, String spelling, long line_index, LineExtras line_extras, Token token, boolean starts_run)
+        {
+            if(size == identities.length)
+            {
+                int capacity = size*2;
+                identities = Arrays.copyOf(identities, capacity);
+                spellings = Arrays.copyOf(spellings, capacity);
+                lines = Arrays.copyOf(lines, capacity);
+                extras = Arrays.copyOf(extras, capacity);
+                tokens = Arrays.copyOf(tokens, capacity);
+                run_starts = Arrays.copyOf(run_starts, capacity);
+            }
+            identities[size] = identity;
+            spellings[size] = spelling;
+            lines[size] = line_index;
+            extras[size] = line_extras;
+            tokens[size] = line_extras != null ? token : null;
+            run_starts[size] = starts_run;
+            size++;
+        }
+        
+        // counts all of them into data and forgets them
+        void add_to(miniFrequencyData data)
+        {
+            int n = data.gram_length;
+            if(n > 1 && (gram == null || gram.length != n))
+                gram = new int[n];
+            int run = 0;
+            for(int i = 0; i < size; i++)
+            {
+                if(extras[i] != null)
+                    extras[i].token = tokens[i];
+                int term = data.addEvent(identities[i], spellings[i], lines[i], extras[i]);
+                if(n < 2)
+                    continue;
+                if(run_starts[i])
+                    run = 0;
+                System.arraycopy(gram, 1, gram, 0, n - 1);
+                gram[n - 1] = term;
+                if(++run >= n)
+                    data.addGram(gram, lines[i]);
+            }
+            Arrays.fill(identities, 0, size, null);
+            Arrays.fill(spellings, 0, size, null);
+            Arrays.fill(extras, 0, size, null);
+            Arrays.fill(tokens, 0, size, null);
+            size = 0;
+        }
+    }
+    
+    // tokenizes and filters a line, adding the terms that are left to events
+    private void analyze_line(Tokenizer tokenizer, TermCache terms, String line, String text, long line_index, TermEvents events)
+    {
+        RunMetrics.Counters counters = metrics.counters();
+        counters.start();
+        List<Token> tokens = tokenizer.tokenize(text);
+        counters.lap(RunMetrics.tokenizing);
+        counters.lines++;
+        counters.tokens += tokens.size();
+        LineExtras extras = config.enable_sentence_reading || config.enable_append_line ? new LineExtras(tokens, line) : null;
+        boolean starts_run = true;
+        for (Token token : tokens)
+        {
+            // skip undesired terms
+
+            TokenFields fields = TokenFields.of(token);
+            int reason = filter_reason(fields);
+            counters.tokens_by_reason[reason]++;
+            counters.lap(RunMetrics.filtering);
+            if(reason != RunMetrics.kept)
+            {
+                if(!config.ngrams_skip_filtered)
+                    starts_run = true;
+                continue;
+            }
+            
+            // record event
+
+            long entry = terms != null ? entry_of(token) : -1;
+            if(entry < 0)
+                events.add(identity_of(fields), spelling_of(fields), line_index, extras, token, starts_run);
+            else
+            {
+                int slot = terms.slot_of(entry);
+                if(!terms.has(slot))
+                    terms.put(slot, entry, terms.intern(identity_of(fields)), terms.intern(spelling_of(fields)));
+                events.add(terms.identities[slot], terms.spellings[slot], line_index, extras, token, starts_run);
+            }
+            starts_run = false;
+            counters.lap(RunMetrics.aggregating);
+        }
+    }
+    
+    private void count(TermEvents events, miniFrequencyData data)
+    {
+        RunMetrics.Counters counters = metrics.counters();
+        counters.start();
+        events.add_to(data);
+        update_preview(data, false);
+        counters.lap(RunMetrics.aggregating);
+    }
+    
+    // puts together the top terms of data for preview() if it's time to, or right away if the thread's done counting
+    private void update_preview(miniFrequencyData data, boolean done)
+    {
+        if(config.preview_top <= 0)
+            return;
+        Preview mine = thread_preview.get();
+        long now = System.nanoTime();
+        if(done || now - mine.next >= 0)
+        {
+            mine.top = data.getTopTerms(config.preview_top);
+            mine.next = now + preview_every;
+        }
+    }
+    
+    private Preview new_preview()
+    {
+        Preview added = new Preview();
+        synchronized(previews)
+        {
+            previews.add(added);
+        }
+        return added;
+    }
+    
+    // The top config.preview_top terms of the run going on, as of the last time the threads counting them looked.
+    // With more than one worker each one only knows the top terms of its own part of the input, so terms further
+    // down can come out a little low.
+    ArrayList<Fact> preview()
+    {
+        HashMap<String, Integer> counts = new HashMap<>();
+        synchronized(previews)
+        {
+            for(Preview counted : previews)
+                for(Fact fact : counted.top)
+                    counts.merge(fact.id, fact.count, Integer::sum);
+        }
+        ArrayList<Fact> top = new ArrayList<>();
+        for(Map.Entry<String, Integer> entry : counts.entrySet())
+            top.add(new Fact(entry.getValue(), entry.getKey()));
+        top.sort((a, b) -> b.count - a.count);
+        return top.size() > config.preview_top ? new ArrayList<>(top.subList(0, config.preview_top)) : top;
+    }
+    
+    // lines analyzed so far in the run going on
+    long lines_analyzed()
+    {
+        return metrics.lines();
+    }
+    
+    // Stops the run going on (or the next one) as soon as it can, without writing any output. A checkpoint
+    // written before then can still be resumed from. Runs after the stopped one go ahead as usual.
+    void cancel()
+    {
+        cancelled = true;
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Licensed under a public domain‐like license. See Main.java for license text.
+ */
+
+// Everything an analysis can be told to do. Can't change once built, so any number of analyses can share one.
+// Options get set on a Builder, which has the same fields, and build() takes a copy of them.
+final class AnalyzerConfig
+{
+    static class Builder
+    {
+        boolean filter_dictionary_enabled = true;
+        boolean filter_punctuation_enabled = true;
+        boolean skip_furigana_formatting = false;
+        boolean enable_linecounter = false;
+        boolean enable_userfilter = true;
+        boolean enable_userdictionary = true;
+        boolean filter_kanji_only = false;
+        int sentence_index = -1;
+        boolean enable_append_line = false;
+        boolean enable_sentence_reading = false;
+        boolean enable_sentence_reading_cloze = false;
+        boolean pull_out_spellings = false;
+        boolean lexeme_only = false;
+        int ngram_length = 1;
+        boolean ngrams_skip_filtered = false;
+        String userdict_file = "userdict.csv";
+        String userfilters_file = "userfilters.csv";
+        int output_top = 0;
+        int output_min_count = 0;
+        int spill_threshold = 0;
+        int worker_threads = 1;
+        String checkpoint_file = null;
+        int checkpoint_interval = 600;
+        boolean resume = false;
+        String base_file = null;
+        String save_file = null;
+        String binary_output = null;
+        boolean per_source_counts = false;
+        String metrics_file = null;
+        int metrics_interval = 10;
+        int deduplicate_longer_than = -1;
+        double deduplicate_false_positive_rate = 0;
+        int preview_top = 0;
+
+        AnalyzerConfig build()
+        {
+            return new AnalyzerConfig(this);
+        }
+    }
+
+    final boolean filter_dictionary_enabled;
+    final boolean filter_punctuation_enabled;
+    final boolean skip_furigana_formatting;
+    final boolean enable_linecounter;
+    final boolean enable_userfilter;
+    final boolean enable_userdictionary;
+    final boolean filter_kanji_only;
+    final int sentence_index;
+    final boolean enable_append_line;
+    final boolean enable_sentence_reading;
+    final boolean enable_sentence_reading_cloze;
+
+    final boolean pull_out_spellings;
+    final boolean lexeme_only;
+
+    // count runs of this many terms in a row within a line instead of single terms (if above 1), with
+    // ngrams_skip_filtered letting them go past filtered tokens instead of stopping at them
+    final int ngram_length;
+    final boolean ngrams_skip_filtered;
+
+    // read from the working directory unless told otherwise
+    final String userdict_file;
+    final String userfilters_file;
+
+    // only output the this many most frequent terms (0 for all), and only ones seen at least this many times
+    final int output_top;
+    final int output_min_count;
+
+    // spill to temporary files once this many distinct terms are being counted in memory (never if 0)
+    final int spill_threshold;
+
+    // tokenize on this many threads (0 for one per core)
+    final int worker_threads;
+
+    // write a checkpoint every this many seconds (never if the file is null), and with resume pick back up from it
+    final String checkpoint_file;
+    final int checkpoint_interval;
+    final boolean resume;
+    // count the input on top of the snapshot in base_file, and write what got counted to save_file
+    final String base_file;
+    final String save_file;
+
+    // write a binary frequency list to this file instead of text to the output
+    final String binary_output;
+
+    // add a column with the count in each input file, in the order the files were found in
+    final boolean per_source_counts;
+
+    // write what the run counted and where its time went to this json file every this many seconds and at the end
+    final String metrics_file;
+    final int metrics_interval;
+
+    final int deduplicate_longer_than;
+    // if above 0, deduplicate with a bloom filter that may drop this fraction of unique lines, otherwise exactly
+    final double deduplicate_false_positive_rate;
+
+    // keep the this many top terms so far around for Analyzer.preview() while running (none if 0)
+    final int preview_top;
+
+    private AnalyzerConfig(Builder options)
+    {
+        filter_dictionary_enabled = options.filter_dictionary_enabled;
+        filter_punctuation_enabled = options.filter_punctuation_enabled;
+        skip_furigana_formatting = options.skip_furigana_formatting;
+        enable_linecounter = options.enable_linecounter;
+        enable_userfilter = options.enable_userfilter;
+        enable_userdictionary = options.enable_userdictionary;
+        filter_kanji_only = options.filter_kanji_only;
+        sentence_index = options.sentence_index;
+        enable_append_line = options.enable_append_line;
+        enable_sentence_reading = options.enable_sentence_reading;
+        enable_sentence_reading_cloze = options.enable_sentence_reading_cloze;
+        pull_out_spellings = options.pull_out_spellings;
+        lexeme_only = options.lexeme_only;
+        ngram_length = options.ngram_length;
+        ngrams_skip_filtered = options.ngrams_skip_filtered;
+        userdict_file = options.userdict_file;
+        userfilters_file = options.userfilters_file;
+        output_top = options.output_top;
+        output_min_count = options.output_min_count;
+        spill_threshold = options.spill_threshold;
+        worker_threads = options.worker_threads;
+        checkpoint_file = options.checkpoint_file;
+        checkpoint_interval = options.checkpoint_interval;
+        resume = options.resume;
+        base_file = options.base_file;
+        save_file = options.save_file;
+        binary_output = options.binary_output;
+        per_source_counts = options.per_source_counts;
+        metrics_file = options.metrics_file;
+        metrics_interval = options.metrics_interval;
+        deduplicate_longer_than = options.deduplicate_longer_than;
+        deduplicate_false_positive_rate = options.deduplicate_false_positive_rate;
+        preview_top = options.preview_top;
+    }
+}
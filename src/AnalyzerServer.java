@@ -0,0 +1,297 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+
+/*
+ * Licensed under a public domain‐like license. See Main.java for license text.
+ */
+
+// Analyzes text sent over http on localhost with a tokenizer and filters that only get loaded once, so lots of
+// small documents don't each pay for starting java and loading the dictionary. Settings are the ones the server
+// was started with.
+//   POST /analyze  the body is one document
+//   POST /batch    the body is a json array of documents, counted together like input files
+// Output is the same tsv the command line gives, or with ?format=json an array of {"count": n, "fields": [...]}.
+// ?top=<n> and ?min-count=<n> work like --top and --min-count. Bodies over max_body bytes get 413.
+class AnalyzerServer
+{
+    // a body gets read into memory whole, so any client could run the server out of memory without a limit
+    private static final int max_body = 64<<20;
+
+    // analyzer has to be loaded already
+    static void start(int port, int threads, Analyzer analyzer) throws IOException
+    {
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/analyze", (exchange) -> handle(exchange, analyzer, false));
+        server.createContext("/batch", (exchange) -> handle(exchange, analyzer, true));
+        server.setExecutor(Executors.newFixedThreadPool(threads));
+        server.start();
+    }
+
+    private static class BadRequest extends Exception
+    {
+        private static final long serialVersionUID = 1L;
+        final int status;
+
+        BadRequest(String message)
+        {
+            this(400, message);
+        }
+
+        BadRequest(int status, String message)
+        {
+            super(message);
+            this.status = status;
+        }
+    }
+
+    private static void handle(HttpExchange exchange, Analyzer analyzer, boolean batch) throws IOException
+    {
+        try
+        {
+            if(!exchange.getRequestMethod().equals("POST"))
+            {
+                exchange.getResponseHeaders().set("Allow", "POST");
+                send_error(exchange, 405, "Only POST is supported");
+                return;
+            }
+            boolean json = false;
+            int top = analyzer.config.output_top;
+            int min_count = analyzer.config.output_min_count;
+            String query = exchange.getRequestURI().getRawQuery();
+            if(query != null)
+            {
+                for(String parameter : query.split("&"))
+                {
+                    int equals = parameter.indexOf('=');
+                    String name = URLDecoder.decode(equals < 0 ? parameter : parameter.substring(0, equals), "UTF-8");
+                    String value = equals < 0 ? "" : URLDecoder.decode(parameter.substring(equals + 1), "UTF-8");
+                    if(name.equals("format"))
+                    {
+                        if(!value.equals("json") && !value.equals("tsv"))
+                            throw new BadRequest("Unknown format: " + value);
+                        json = value.equals("json");
+                    }
+                    else if(name.equals("top"))
+                        top = parse_number(name, value);
+                    else if(name.equals("min-count"))
+                        min_count = parse_number(name, value);
+                    else
+                        throw new BadRequest("Unknown parameter: " + name);
+                }
+            }
+
+            String length = exchange.getRequestHeaders().getFirst("Content-Length");
+            if(length != null && parse_length(length) > max_body)
+                throw new BadRequest(413, "Request bodies can be at most " + max_body + " bytes");
+            String body = read_body(exchange.getRequestBody());
+            List<String> documents = batch ? parse_documents(body) : Collections.singletonList(body);
+            miniFrequencyData data = analyzer.analyze_documents(documents);
+            if(data == null)
+                throw new BadRequest("Sentence index out of range");
+
+            // the whole response gets put together before the status goes out, so a failure can still send a 500
+            ByteArrayOutputStream response = new ByteArrayOutputStream();
+            try (BufferedWriter out = new BufferedWriter(new OutputStreamWriter(response, StandardCharsets.UTF_8), 1<<16))
+            {
+                boolean first = true;
+                if(json)
+                    out.write("[");
+                for(Fact fact : data.getSortedFrequencyList(top, min_count, analyzer.line_labels()))
+                {
+                    if(!json)
+                    {
+                        out.write(fact.count + "\t" + fact.id + "\n");
+                        continue;
+                    }
+                    out.write(first ? "\n" : ",\n");
+                    first = false;
+                    out.write("{\"count\": " + fact.count + ", \"fields\": [");
+                    String[] fields = fact.id.split("\t", -1);
+                    for(int i = 0; i < fields.length; i++)
+                    {
+                        if(i > 0)
+                            out.write(", ");
+                        write_string(out, fields[i]);
+                    }
+                    out.write("]}");
+                }
+                if(json)
+                    out.write("\n]\n");
+            }
+            exchange.getResponseHeaders().set("Content-Type", json ? "application/json; charset=utf-8" : "text/tab-separated-values; charset=utf-8");
+            exchange.sendResponseHeaders(200, response.size());
+            response.writeTo(exchange.getResponseBody());
+        }
+        catch (BadRequest e)
+        {
+            send_error(exchange, e.status, e.getMessage());
+        }
+        catch (IOException|RuntimeException e)
+        {
+            send_error(exchange, 500, "Failed to analyze: " + e);
+        }
+        finally
+        {
+            exchange.close();
+        }
+    }
+
+    private static void send_error(HttpExchange exchange, int status, String message)
+    {
+        try
+        {
+            byte[] bytes = (message + "\n").getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+            exchange.sendResponseHeaders(status, bytes.length);
+            exchange.getResponseBody().write(bytes);
+        }
+        catch (IOException e) { /* */ }
+    }
+
+    private static int parse_number(String name, String value) throws BadRequest
+    {
+        try
+        {
+            return Integer.parseInt(value);
+        }
+        catch (NumberFormatException e)
+        {
+            throw new BadRequest("Expected a number for " + name);
+        }
+    }
+
+    private static long parse_length(String value) throws BadRequest
+    {
+        try
+        {
+            return Long.parseLong(value.trim());
+        }
+        catch (NumberFormatException e)
+        {
+            throw new BadRequest("Bad Content-Length");
+        }
+    }
+
+    // stops reading as soon as there's more than max_body, for bodies sent without a length
+    private static String read_body(InputStream in) throws IOException, BadRequest
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1<<16];
+        for(int n; (n = in.read(buffer)) > 0; )
+        {
+            if(bytes.size() + n > max_body)
+                throw new BadRequest(413, "Request bodies can be at most " + max_body + " bytes");
+            bytes.write(buffer, 0, n);
+        }
+        return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    // just enough json to read an array of strings
+    private static List<String> parse_documents(String json) throws BadRequest
+    {
+        ArrayList<String> documents = new ArrayList<>();
+        int i = skip_space(json, 0);
+        if(i >= json.length() || json.charAt(i) != '[')
+            throw new BadRequest("Expected a json array of strings");
+        i = skip_space(json, i + 1);
+        if(i < json.length() && json.charAt(i) == ']')
+            return documents;
+        while(true)
+        {
+            if(i >= json.length() || json.charAt(i) != '"')
+                throw new BadRequest("Expected a string at " + i);
+            StringBuilder document = new StringBuilder();
+            for(i++; ; i++)
+            {
+                if(i >= json.length())
+                    throw new BadRequest("Unterminated string");
+                char c = json.charAt(i);
+                if(c == '"')
+                    break;
+                if(c != '\\')
+                {
+                    document.append(c);
+                    continue;
+                }
+                if(++i >= json.length())
+                    throw new BadRequest("Unterminated string");
+                c = json.charAt(i);
+                switch(c)
+                {
+                    case 'b': document.append('\b'); break;
+                    case 'f': document.append('\f'); break;
+                    case 'n': document.append('\n'); break;
+                    case 'r': document.append('\r'); break;
+                    case 't': document.append('\t'); break;
+                    case 'u':
+                        if(i + 4 >= json.length())
+                            throw new BadRequest("Bad escape at " + i);
+                        try
+                        {
+                            document.append((char)Integer.parseInt(json.substring(i + 1, i + 5), 16));
+                        }
+                        catch (NumberFormatException e)
+                        {
+                            throw new BadRequest("Bad escape at " + i);
+                        }
+                        i += 4;
+                        break;
+                    case '"': case '\\': case '/': document.append(c); break;
+                    default: throw new BadRequest("Bad escape at " + i);
+                }
+            }
+            documents.add(document.toString());
+            i = skip_space(json, i + 1);
+            if(i < json.length() && json.charAt(i) == ',')
+            {
+                i = skip_space(json, i + 1);
+                continue;
+            }
+            if(i < json.length() && json.charAt(i) == ']' && skip_space(json, i + 1) == json.length())
+                return documents;
+            throw new BadRequest("Expected , or ] at " + i);
+        }
+    }
+
+    private static int skip_space(String json, int i)
+    {
+        while(i < json.length() && " \t\r\n".indexOf(json.charAt(i)) >= 0)
+            i++;
+        return i;
+    }
+
+    private static void write_string(Writer out, String s) throws IOException
+    {
+        out.write('"');
+        for(int i = 0; i < s.length(); i++)
+        {
+            char c = s.charAt(i);
+            if(c == '"' || c == '\\')
+            {
+                out.write('\\');
+                out.write(c);
+            }
+            else if(c == '\n')
+                out.write("\\n");
+            else if(c == '\r')
+                out.write("\\r");
+            else if(c == '\t')
+                out.write("\\t");
+            else if(c < 0x20)
+                out.write(String.format("\\u%04x", (int)c));
+            else
+                out.write(c);
+        }
+        out.write('"');
+    }
+}
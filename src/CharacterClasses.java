@@ -0,0 +1,100 @@
+/*
+ * Licensed under a public domain‐like license. See Main.java for license text.
+ */
+
+// Character checks on tokens without regexes: one table lookup per char, nothing allocated.
+class CharacterClasses
+{
+    private static final byte punctuation = 1; // unicode punctuation and the spaces and ─ the punctuation filter skips
+    private static final byte kanji = 2; // U+4E00 to U+9FAF
+    private static final byte katakana = 4; // ones with a hiragana counterpart
+    private static final byte[] classes = new byte[0x10000];
+    private static final int kana_start = 0x30A0;
+    private static final char[] hiragana = new char[0x60]; // by katakana - kana_start
+    static
+    {
+        for(int c = 0; c < classes.length; c++)
+        {
+            if(is_punctuation_type(c))
+                classes[c] |= punctuation;
+        }
+        classes[' '] |= punctuation;
+        classes['　'] |= punctuation;
+        classes['─'] |= punctuation;
+        for(int c = 0x4E00; c <= 0x9FAF; c++)
+            classes[c] |= kanji;
+        // ァ to ヶ sit exactly 0x60 after ぁ to ゖ, and ヽヾ after ゝゞ. ー, ・ and ヷ to ヺ have no hiragana of their own.
+        for(int c = 0x30A1; c <= 0x30F6; c++)
+        {
+            classes[c] |= katakana;
+            hiragana[c - kana_start] = (char)(c - 0x60);
+        }
+        for(int c = 0x30FD; c <= 0x30FE; c++)
+        {
+            classes[c] |= katakana;
+            hiragana[c - kana_start] = (char)(c - 0x60);
+        }
+    }
+
+    private static boolean is_punctuation_type(int c)
+    {
+        switch(Character.getType(c))
+        {
+            case Character.CONNECTOR_PUNCTUATION:
+            case Character.DASH_PUNCTUATION:
+            case Character.START_PUNCTUATION:
+            case Character.END_PUNCTUATION:
+            case Character.INITIAL_QUOTE_PUNCTUATION:
+            case Character.FINAL_QUOTE_PUNCTUATION:
+            case Character.OTHER_PUNCTUATION:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static boolean is_line_terminator(char c)
+    {
+        return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+    }
+
+    // Nothing but punctuation and spaces, including nothing at all. Same as the ^[\p{Punct} 　─]*$ regex (with unicode
+    // character classes) this replaced, which also lets one line break at the very end through.
+    static boolean isPunctuation(String s)
+    {
+        int end = s.length();
+        if(end > 0 && is_line_terminator(s.charAt(end - 1)))
+            end -= end > 1 && s.charAt(end - 2) == '\r' && s.charAt(end - 1) == '\n' ? 2 : 1;
+        for(int i = 0; i < end; i++)
+        {
+            char c = s.charAt(i);
+            if(Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(s.charAt(i + 1)))
+            {
+                if(!is_punctuation_type(Character.toCodePoint(c, s.charAt(++i))))
+                    return false;
+            }
+            else if((classes[c] & punctuation) == 0)
+                return false;
+        }
+        return true;
+    }
+
+    // Starts with a kanji, like [一-龯]+.* (so no line breaks after it either)
+    static boolean startsWithKanji(String s)
+    {
+        if(s.isEmpty() || (classes[s.charAt(0)] & kanji) == 0)
+            return false;
+        for(int i = 1; i < s.length(); i++)
+        {
+            if(is_line_terminator(s.charAt(i)))
+                return false;
+        }
+        return true;
+    }
+
+    // katakana to the same kana in hiragana, everything else stays as it is
+    static char toHiragana(char c)
+    {
+        return (classes[c] & katakana) != 0 ? hiragana[c - kana_start] : c;
+    }
+}
@@ -0,0 +1,165 @@
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+
+/*
+ * Licensed under a public domain‐like license. See Main.java for license text.
+ */
+
+// Everything a run needs to pick back up where it left off: how far into its input files it got, the terms counted so
+// far and the lines -m has already seen. Without inputs this is a snapshot that --base adds new input on top of.
+class Checkpoint
+{
+    private static final int magic = 0x414E4C5A;
+    private static final int version = 4;
+
+    // settings that change what ends up in the table, which can't be mixed within one
+    int options = 0; // see options_of
+    String settings = ""; // see settings_of
+    // size and modification time of the file behind every input, so a checkpoint doesn't get resumed against some other files
+    long[] input_sizes = null;
+    long[] input_modified = null;
+    int source = 0; // input the run got to
+    long offset = 0; // bytes of it already analyzed, after decompressing
+    long[] source_first_lines = new long[0]; // line each input up to the current one starts at
+    miniFrequencyData data;
+    LineDeduplicator seen_lines; // null if not deduplicating
+
+    // the settings that change what gets counted, which snapshots and frequency lists have to agree on
+    static int options_of(AnalyzerConfig config)
+    {
+        int options = 0;
+        if(config.pull_out_spellings) options |= 1;
+        if(config.lexeme_only) options |= 2;
+        if(config.enable_sentence_reading) options |= 4;
+        if(config.enable_sentence_reading_cloze) options |= 8;
+        if(config.enable_append_line) options |= 16;
+        return options;
+    }
+
+    // The settings that decide which tokens get counted at all, spelled the way they're given on the command line,
+    // and the user files by hash. Counts made with other ones can't be added up with these.
+    static String settings_of(AnalyzerConfig config, byte[] userdict_hash, byte[] userfilters_hash)
+    {
+        StringBuilder settings = new StringBuilder();
+        if(!config.filter_punctuation_enabled) settings.append(" -p");
+        if(!config.filter_dictionary_enabled) settings.append(" -w");
+        if(config.filter_kanji_only) settings.append(" -k");
+        if(config.skip_furigana_formatting) settings.append(" -s");
+        if(config.sentence_index >= 0) settings.append(" -i").append(config.sentence_index);
+        if(config.deduplicate_longer_than > 0)
+        {
+            settings.append(" -m").append(config.deduplicate_longer_than);
+            if(config.deduplicate_false_positive_rate > 0)
+                settings.append(" --dedup-bloom ").append(config.deduplicate_false_positive_rate);
+        }
+        settings.append(config.enable_userdictionary ? " userdict.csv:" + hex(userdict_hash) : " -d");
+        settings.append(config.enable_userfilter ? " userfilters.csv:" + hex(userfilters_hash) : " -f");
+        return settings.substring(1);
+    }
+
+    private static String hex(byte[] hash)
+    {
+        StringBuilder text = new StringBuilder();
+        for(byte b : hash)
+            text.append(String.format("%02x", b & 0xFF));
+        return text.toString();
+    }
+
+    void setInputs(List<InputSource> inputs) throws IOException
+    {
+        input_sizes = new long[inputs.size()];
+        input_modified = new long[inputs.size()];
+        for(int i = 0; i < inputs.size(); i++)
+        {
+            input_sizes[i] = Files.size(inputs.get(i).path);
+            input_modified[i] = Files.getLastModifiedTime(inputs.get(i).path).toMillis();
+        }
+    }
+
+    boolean matchesInputs(List<InputSource> inputs) throws IOException
+    {
+        if(input_sizes == null || input_sizes.length != inputs.size())
+            return false;
+        for(int i = 0; i < inputs.size(); i++)
+        {
+            Path path = inputs.get(i).path;
+            if(input_sizes[i] != Files.size(path) || input_modified[i] != Files.getLastModifiedTime(path).toMillis())
+                return false;
+        }
+        return true;
+    }
+
+    // goes to a temporary file first, so a run that dies halfway through writing leaves the last checkpoint alone
+    void write(Path path) throws IOException
+    {
+        Path temp = Paths.get(path.toString() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), 1<<16)))
+        {
+            out.writeInt(magic);
+            out.writeInt(version);
+            out.writeInt(options);
+            FrequencyList.writeString(out, settings);
+            out.writeInt(input_sizes == null ? -1 : input_sizes.length);
+            for(int i = 0; input_sizes != null && i < input_sizes.length; i++)
+            {
+                out.writeLong(input_sizes[i]);
+                out.writeLong(input_modified[i]);
+            }
+            out.writeInt(source);
+            out.writeLong(offset);
+            out.writeInt(source_first_lines.length);
+            for(long line : source_first_lines)
+                out.writeLong(line);
+            data.writeSnapshot(out);
+            out.writeBoolean(seen_lines != null);
+            if(seen_lines != null)
+                seen_lines.write(out);
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    static Checkpoint read(Path path) throws IOException
+    {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 1<<16)))
+        {
+            if(in.readInt() != magic || in.readInt() != version)
+                throw new IOException("Not a snapshot: " + path);
+            Checkpoint checkpoint = new Checkpoint();
+            checkpoint.options = in.readInt();
+            checkpoint.settings = FrequencyList.readString(in);
+            if(checkpoint.settings == null)
+                throw new IOException("Corrupt snapshot: " + path);
+            int inputs = in.readInt();
+            if(inputs >= 0)
+            {
+                checkpoint.input_sizes = new long[inputs];
+                checkpoint.input_modified = new long[inputs];
+                for(int i = 0; i < inputs; i++)
+                {
+                    checkpoint.input_sizes[i] = in.readLong();
+                    checkpoint.input_modified[i] = in.readLong();
+                }
+            }
+            checkpoint.source = in.readInt();
+            checkpoint.offset = in.readLong();
+            int sources = in.readInt();
+            if(sources < 0 || sources > (inputs < 0 ? 0 : inputs))
+                throw new IOException("Corrupt snapshot: " + path);
+            checkpoint.source_first_lines = new long[sources];
+            for(int i = 0; i < sources; i++)
+                checkpoint.source_first_lines[i] = in.readLong();
+            checkpoint.data = miniFrequencyData.readSnapshot(in);
+            if(in.readBoolean())
+                checkpoint.seen_lines = LineDeduplicator.read(in);
+            return checkpoint;
+        }
+        catch (EOFException e)
+        {
+            throw new IOException("Truncated snapshot: " + path);
+        }
+    }
+}
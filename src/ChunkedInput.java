@@ -0,0 +1,175 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+
+/*
+ * Licensed under a public domain‐like license. See Main.java for license text.
+ */
+
+// Splits files into pieces that can each be handed to their own LineReader and give exactly the same lines
+// that reading the whole file in one go would. Compressed input can't be cut up like that, so it stays in one piece.
+class ChunkedInput
+{
+    static class Chunk
+    {
+        final int index;
+        final int source; // which input it's from
+        final InputSource input;
+        final long start;
+        final long length; // stored bytes
+        Chunk(int index, int source, InputSource input, long start, long length)
+        {
+            this.index = index;
+            this.source = source;
+            this.input = input;
+            this.start = start;
+            this.length = length;
+        }
+        // the mapping stays valid after the file is closed, so only the files being read are open at any time
+        InputSource.Reader open(boolean strip_furigana) throws IOException
+        {
+            if(input.compressed())
+                return input.open(0, strip_furigana);
+            return input.map(start, length, strip_furigana);
+        }
+    }
+
+    private static final long max_target_size = 1L<<28;
+    private static final long window_size = 1L<<28;
+
+    // Cuts the file right after a line break roughly every target_size bytes.
+    // '\n' never shows up inside of a multibyte utf-8 sequence, so the decoder can start fresh at every cut.
+    // When furigana gets stripped, a 《》 span can run over line breaks, so those have to be skipped over.
+    // The pieces get added to chunks, numbered on from the ones already in there.
+    // Returns false if some piece would be too big to map, e.g. because of a 《 that never gets closed.
+    static boolean split(InputSource input, int source, ArrayList<Chunk> chunks, long target_size, boolean strip_furigana) throws IOException
+    {
+        if(input.compressed())
+        {
+            chunks.add(new Chunk(chunks.size(), source, input, 0, input.size));
+            return true;
+        }
+        try (FileChannel channel = FileChannel.open(input.path, StandardOpenOption.READ))
+        {
+            return split(channel, input, source, chunks, target_size, strip_furigana);
+        }
+    }
+
+    private static boolean split(FileChannel channel, InputSource input, int source, ArrayList<Chunk> chunks, long target_size, boolean strip_furigana) throws IOException
+    {
+        target_size = Math.max(1, Math.min(target_size, max_target_size));
+        long size = channel.size();
+        long start = 0;
+        if(!strip_furigana)
+        {
+            ByteBuffer probe = ByteBuffer.allocate(1<<16);
+            while(start < size)
+            {
+                long end = next_line_break(channel, start + target_size, size, probe);
+                if(!add(chunks, source, input, start, end))
+                    return false;
+                start = end;
+            }
+            return true;
+        }
+
+        // mirrors what LineReader does with 《》 at the char level, but on raw bytes
+        final int text = 0;
+        final int furigana = 1;
+        final int after_furigana = 2; // LineReader never checks the char right after a 》 for 《
+        final int rest_of_char = 3;
+        int state = text;
+        int continuation_bytes = 0;
+        int prev1 = 0;
+        int prev2 = 0;
+        for(long window = 0; window < size; window += window_size)
+        {
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, window, Math.min(window_size, size - window));
+            int limit = map.limit();
+            for(int i = 0; i < limit; i++)
+            {
+                int b = map.get(i) & 0xFF;
+                boolean line_break = false;
+                if(state == rest_of_char)
+                {
+                    if((b & 0xC0) == 0x80 && --continuation_bytes > 0)
+                        continue;
+                    state = text;
+                    if((b & 0xC0) == 0x80)
+                        continue;
+                }
+                if(state == after_furigana)
+                {
+                    line_break = b == '\n';
+                    continuation_bytes = b >= 0xF0 ? 3 : b >= 0xE0 ? 2 : b >= 0xC0 ? 1 : 0;
+                    state = continuation_bytes > 0 ? rest_of_char : text;
+                    prev1 = prev2 = 0;
+                }
+                else if(state == furigana)
+                {
+                    if(prev2 == 0xE3 && prev1 == 0x80 && b == 0x8B) // 》
+                    {
+                        state = after_furigana;
+                        prev1 = prev2 = 0;
+                    }
+                    else
+                    {
+                        prev2 = prev1;
+                        prev1 = b;
+                    }
+                }
+                else
+                {
+                    if(prev2 == 0xE3 && prev1 == 0x80 && b == 0x8A) // 《
+                    {
+                        state = furigana;
+                        prev1 = prev2 = 0;
+                    }
+                    else
+                    {
+                        line_break = b == '\n';
+                        prev2 = prev1;
+                        prev1 = b;
+                    }
+                }
+
+                long end = window + i + 1;
+                if(line_break && end - start >= target_size)
+                {
+                    if(!add(chunks, source, input, start, end))
+                        return false;
+                    start = end;
+                }
+            }
+        }
+        return start >= size || add(chunks, source, input, start, size);
+    }
+
+    private static boolean add(ArrayList<Chunk> chunks, int source, InputSource input, long start, long end)
+    {
+        if(end - start > Integer.MAX_VALUE)
+            return false;
+        chunks.add(new Chunk(chunks.size(), source, input, start, end - start));
+        return true;
+    }
+
+    private static long next_line_break(FileChannel channel, long position, long size, ByteBuffer probe) throws IOException
+    {
+        while(position < size)
+        {
+            probe.clear();
+            int n = channel.read(probe, position);
+            if(n <= 0) break;
+            for(int i = 0; i < n; i++)
+            {
+                if(probe.get(i) == '\n')
+                    return position + i + 1;
+            }
+            position += n;
+        }
+        return size;
+    }
+}
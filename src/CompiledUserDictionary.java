@@ -0,0 +1,289 @@
+import com.atilika.kuromoji.dict.UserDictionary;
+import com.atilika.kuromoji.util.DictionaryEntryLineParser;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/*
+ * Licensed under a public domain‐like license. See Main.java for license text.
+ */
+
+// userdict.csv, compiled once into a file next to it and loaded from there while the csv doesn't change, because
+// parsing a big csv takes longer than analyzing a typical input. kuromoji can only make a UserDictionary out of csv
+// text, so this stands in for one: it gives the tokenizer the same matches and features kuromoji's own would, from
+// tables sorted by surface that are quick to read back. Entries with the same surface only keep the last one, which
+// is the one kuromoji would match too.
+class CompiledUserDictionary extends UserDictionary
+{
+    private static final int magic = 0x41554443;
+    private static final int version = 1;
+    private static final int first_word_id = 100000000; // where kuromoji numbers user dictionary entries from
+
+    private final int total_features;
+    private final int reading_feature;
+    private final int part_of_speech_feature;
+
+    private final String[] surfaces; // sorted
+    private final int[][] segments; // for every surface, the word id of its first segment and then their lengths
+    private final String[] readings; // by word id - first_word_id
+    private final String[] parts_of_speech; // by word id - first_word_id
+
+    private CompiledUserDictionary(String[] surfaces, int[][] segments, String[] readings, String[] parts_of_speech, int total_features, int reading_feature, int part_of_speech_feature) throws IOException
+    {
+        super(new ByteArrayInputStream(new byte[0]), total_features, reading_feature, part_of_speech_feature);
+        this.surfaces = surfaces;
+        this.segments = segments;
+        this.readings = readings;
+        this.parts_of_speech = parts_of_speech;
+        this.total_features = total_features;
+        this.reading_feature = reading_feature;
+        this.part_of_speech_feature = part_of_speech_feature;
+    }
+
+    // The dictionary in csv, whose contents are bytes with the SHA-256 hash. Comes from csv + ".compiled" if that was
+    // made from the same contents, and is compiled and saved there otherwise. A compiled file that can't be read or
+    // written only means the csv gets parsed.
+    static CompiledUserDictionary load(Path csv, byte[] bytes, byte[] hash, int total_features, int reading_feature, int part_of_speech_feature) throws IOException
+    {
+        Path compiled = Paths.get(csv.toString() + ".compiled");
+        try
+        {
+            CompiledUserDictionary dictionary = read(compiled, hash, total_features, reading_feature, part_of_speech_feature);
+            if(dictionary != null)
+                return dictionary;
+        }
+        catch (IOException e)
+        {
+            // made by another version, or cut short, so it gets made again
+        }
+        CompiledUserDictionary dictionary = compile(bytes, total_features, reading_feature, part_of_speech_feature);
+        try
+        {
+            dictionary.write(compiled, hash);
+        }
+        catch (IOException e)
+        {
+            // read-only directory and the like, next time parses the csv again
+        }
+        return dictionary;
+    }
+
+    // parses csv text the way kuromoji's UserDictionary.read does
+    static CompiledUserDictionary compile(byte[] csv, int total_features, int reading_feature, int part_of_speech_feature) throws IOException
+    {
+        TreeMap<String, String[]> entries = new TreeMap<>(); // surface to segmentation, readings, part of speech
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(csv), StandardCharsets.UTF_8));
+        for(String line; (line = reader.readLine()) != null; )
+        {
+            int comment = line.indexOf('#');
+            if(comment >= 0)
+                line = line.substring(0, comment);
+            line = line.trim();
+            if(line.isEmpty())
+                continue;
+            String[] values = DictionaryEntryLineParser.parseLine(line);
+            if(values.length < 4)
+                throw new IOException("User dictionary entry not properly formatted: " + line);
+            String[] entry = new String[]{values[1], values[2], values[3]};
+            boolean custom = !values[0].equals(entry[0]);
+            if(split(custom, entry[0]).length != split(custom, entry[1]).length)
+                throw new IOException("User dictionary entry not properly formatted: " + line);
+            entries.put(values[0], entry);
+        }
+
+        String[] surfaces = entries.keySet().toArray(new String[0]);
+        int[][] segments = new int[surfaces.length][];
+        ArrayList<String> readings = new ArrayList<>();
+        ArrayList<String> parts_of_speech = new ArrayList<>();
+        for(int i = 0; i < surfaces.length; i++)
+        {
+            String[] entry = entries.get(surfaces[i]);
+            boolean custom = !surfaces[i].equals(entry[0]);
+            String[] segmentation = split(custom, entry[0]);
+            String[] segment_readings = split(custom, entry[1]);
+            segments[i] = new int[segmentation.length + 1];
+            segments[i][0] = first_word_id + readings.size();
+            for(int s = 0; s < segmentation.length; s++)
+            {
+                segments[i][s + 1] = segmentation[s].length();
+                readings.add(segment_readings[s]);
+                parts_of_speech.add(entry[2]);
+            }
+        }
+        return new CompiledUserDictionary(surfaces, segments, readings.toArray(new String[0]), parts_of_speech.toArray(new String[0]), total_features, reading_feature, part_of_speech_feature);
+    }
+
+    // a segmentation or its readings, which only get split up if the segmentation isn't just the surface
+    private static String[] split(boolean custom, String value)
+    {
+        return custom ? value.split("\\s+") : new String[]{value};
+    }
+
+    // null if path was made from some other csv
+    private static CompiledUserDictionary read(Path path, byte[] hash, int total_features, int reading_feature, int part_of_speech_feature) throws IOException
+    {
+        if(!Files.isRegularFile(path))
+            return null;
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(Files.readAllBytes(path))))
+        {
+            if(in.readInt() != magic || in.readInt() != version)
+                throw new IOException("Not a compiled user dictionary: " + path);
+            byte[] made_from = new byte[hash.length];
+            in.readFully(made_from);
+            if(!Arrays.equals(made_from, hash))
+                return null;
+
+            // every part of speech once, which entries refer to by index
+            String[] names = new String[Math.toIntExact(FrequencyList.readVarLong(in))];
+            for(int i = 0; i < names.length; i++)
+                names[i] = FrequencyList.readString(in);
+            String[] surfaces = new String[Math.toIntExact(FrequencyList.readVarLong(in))];
+            int[][] segments = new int[surfaces.length][];
+            String[] readings = new String[Math.toIntExact(FrequencyList.readVarLong(in))];
+            String[] parts_of_speech = new String[readings.length];
+            int word = 0;
+            for(int i = 0; i < surfaces.length; i++)
+            {
+                surfaces[i] = FrequencyList.readString(in);
+                String part_of_speech = names[Math.toIntExact(FrequencyList.readVarLong(in))];
+                segments[i] = new int[Math.toIntExact(FrequencyList.readVarLong(in)) + 1];
+                segments[i][0] = first_word_id + word;
+                for(int s = 1; s < segments[i].length; s++, word++)
+                {
+                    segments[i][s] = Math.toIntExact(FrequencyList.readVarLong(in));
+                    readings[word] = FrequencyList.readString(in);
+                    parts_of_speech[word] = part_of_speech;
+                }
+            }
+            if(word != readings.length)
+                throw new IOException("Corrupt compiled user dictionary: " + path);
+            return new CompiledUserDictionary(surfaces, segments, readings, parts_of_speech, total_features, reading_feature, part_of_speech_feature);
+        }
+        catch (EOFException | ArithmeticException | ArrayIndexOutOfBoundsException e)
+        {
+            throw new IOException("Corrupt compiled user dictionary: " + path, e);
+        }
+    }
+
+    // goes to a temporary file first, so two processes compiling the same csv at once can't leave half a file behind
+    private void write(Path path, byte[] hash) throws IOException
+    {
+        Path temp = Files.createTempFile(path.toAbsolutePath().getParent(), path.getFileName().toString(), ".tmp");
+        try
+        {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), 1<<16)))
+            {
+                out.writeInt(magic);
+                out.writeInt(version);
+                out.write(hash);
+                LinkedHashMap<String, Integer> names = new LinkedHashMap<>();
+                for(String part_of_speech : parts_of_speech)
+                    names.putIfAbsent(part_of_speech, names.size());
+                FrequencyList.writeVarLong(out, names.size());
+                for(String name : names.keySet())
+                    FrequencyList.writeString(out, name);
+                FrequencyList.writeVarLong(out, surfaces.length);
+                FrequencyList.writeVarLong(out, readings.length);
+                for(int i = 0; i < surfaces.length; i++)
+                {
+                    int word = segments[i][0] - first_word_id;
+                    FrequencyList.writeString(out, surfaces[i]);
+                    FrequencyList.writeVarLong(out, names.get(parts_of_speech[word]));
+                    FrequencyList.writeVarLong(out, segments[i].length - 1);
+                    for(int s = 1; s < segments[i].length; s++)
+                    {
+                        FrequencyList.writeVarLong(out, segments[i][s]);
+                        FrequencyList.writeString(out, readings[word + s - 1]);
+                    }
+                }
+            }
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        finally
+        {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    // Like kuromoji: at every position, finds the longest run of characters that some surface starts with, and
+    // matches if that run is a whole surface. Surfaces that all start with the same characters are next to each other
+    // in sorted order, so that only takes narrowing down a range of them one character at a time.
+    @Override
+    public List<UserDictionaryMatch> findUserDictionaryMatches(String text)
+    {
+        List<UserDictionaryMatch> matches = new ArrayList<>();
+        for(int start = 0; start < text.length(); start++)
+        {
+            int from = 0;
+            int to = surfaces.length;
+            int length = 0;
+            while(start + length < text.length())
+            {
+                char c = text.charAt(start + length);
+                int first = first_from(from, to, length, c);
+                int end = first_from(first, to, length, c + 1);
+                if(first == end)
+                    break;
+                from = first;
+                to = end;
+                length++;
+            }
+            // the shortest surface sorts first
+            if(length == 0 || surfaces[from].length() != length)
+                continue;
+            int[] entry = segments[from];
+            int offset = 0;
+            for(int s = 1; s < entry.length; s++)
+            {
+                matches.add(new UserDictionaryMatch(entry[0] + s - 1, start + offset, entry[s]));
+                offset += entry[s];
+            }
+        }
+        return matches;
+    }
+
+    // First of surfaces[from, to), which all have the same first depth characters, whose next one is at least c.
+    // Surfaces with nothing after those sort first.
+    private int first_from(int from, int to, int depth, int c)
+    {
+        while(from < to)
+        {
+            int middle = (from + to) >>> 1;
+            String surface = surfaces[middle];
+            if((surface.length() > depth ? surface.charAt(depth) : -1) < c)
+                from = middle + 1;
+            else
+                to = middle;
+        }
+        return from;
+    }
+
+    @Override
+    public String getFeature(int wordId, int... fields)
+    {
+        if(fields.length == 0 || fields.length == total_features)
+            return getAllFeatures(wordId);
+        String[] features = new String[fields.length];
+        for(int i = 0; i < fields.length; i++)
+        {
+            if(fields[i] == reading_feature)
+                features[i] = readings[wordId - first_word_id];
+            else if(fields[i] == part_of_speech_feature)
+                features[i] = parts_of_speech[wordId - first_word_id];
+            else
+                features[i] = "*";
+        }
+        return String.join(",", features);
+    }
+
+    @Override
+    public void addEntry(String entry)
+    {
+        throw new UnsupportedOperationException("compiled user dictionaries can't be added to");
+    }
+}
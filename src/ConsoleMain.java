@@ -1,6 +1,8 @@
 import java.io.*;
 import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.NoSuchElementException;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -9,7 +11,26 @@ import java.util.regex.Pattern;
  */
 
 public class ConsoleMain extends Main {
+    // to force utf-8 output on windows
+    private static BufferedWriter out;
+    // frequency lists get encoded by the analyzer itself, and unlike System.out this reports errors
+    private static final OutputStream list_out = new FileOutputStream(FileDescriptor.out);
     private static String last_message = "";
+    private static void report(String text, Double length)
+    {
+        String mini_text = text.split(":")[0];
+        if(mini_text.equals(last_message))
+            System.err.printf("\r");
+        else
+            System.err.printf("\n");
+        if(length == 0.0)
+            System.err.printf(text);
+        else if(length > 0.0)
+            System.err.printf(text + " %.02f%%", length*100);
+        else if(!text.equals("Done"))
+            System.err.printf(text + " ...");
+        last_message = mini_text;
+    }
     public static void main(String[] args)
     {
         try
@@ -25,11 +46,16 @@ public class ConsoleMain extends Main {
 
         ArrayDeque<String> arguments = new ArrayDeque<>();
         arguments.addAll(Arrays.asList(args));
+        AnalyzerConfig.Builder options = new AnalyzerConfig.Builder();
 
         if (arguments.peekFirst().matches("(-h)|(--help)"))
         {
-            println(out, "Usage: java -jar analyzer.jar <corpus.txt> (-[fdswlpn] )*");
-            println(out, "\tcorpus.txt: must be in utf-8. cannot be named \"-h\" or \"--help\".");
+            println(out, "Usage: java -jar analyzer.jar <corpus.txt>+ (-[fdswlpn] )*");
+            println(out, "\tcorpus.txt: must be in utf-8. cannot be named \"-h\", \"--help\", \"merge\" or \"serve\".");
+            println(out, "\t\tcan also be a directory (all files in it, recursively) or a glob like \"books/**/*.txt\" (quote it), both sorted by path.");
+            println(out, "\t\tin globs, **/ matches any number of directories, none included. a name that exists is never taken as a glob.");
+            println(out, "\t\twith more than one file, they are all analyzed together on the same kuromoji instance.");
+            println(out, "\t\tgzip and zip files are decompressed while reading. every file in a zip is its own input file, named <zip>!<entry>.");
             println(out, "\t-f: disable user filters (userfilters.csv)");
             println(out, "\t-d: disable user dictionary (userdict.csv)");
             println(out, "\t-s: strip 〈〉 (but not their contents) and enable 《》 furigana culling (incl. contents) (operates at the code unit level, before parsing)");
@@ -37,68 +63,236 @@ public class ConsoleMain extends Main {
             println(out, "\t-p: disable punctuation filter");
             println(out, "\t-k: words with kanji only");
             println(out, "\t-c: count lines and export index of the first line a term shows up in");
+            println(out, "\t\twith more than one input file, this is the file and the index of the line within it, as <file>:<index>");
             println(out, "\t-l: pull out spellings to additional columns (merge respellings of words)");
             println(out, "\t-x: lexme mode (pull out spellings, pronunciations, and accents, overrides/replaces -l)");
             println(out, "\t-a: Append original line of the first time a term shows up in");
             println(out, "\t-r: Include furigana reading with sentence");
             println(out, "\t-rc: Also include cloze html tags to mark the keyword in the sentence");
+            println(out, "\t-n<number>: count n-grams, runs of this many terms (2 or 3) in a row within a line, instead of single terms");
+            println(out, "\t\tfiltered tokens end a run. n-grams are listed as the identities of their terms, one after another");
+            println(out, "\t--skip-filtered: let n-grams (-n) skip over filtered tokens instead of ending at them");
             println(out, "\t-i<number>: index of sentence for TSV input, no space between -i and number");
             println(out, "\t-m<number>: deduplicate lines longer than this (negative to disable) (disabled by default)");
+            println(out, "\t--dedup-bloom <rate>: deduplicate (-m) with a bloom filter that wrongly drops at most about this fraction of lines, using less memory");
+            println(out, "\t--top <number>: only output this many of the most frequent terms");
+            println(out, "\t--min-count <number>: only output terms that show up at least this many times");
+            println(out, "\t--spill <number>: count at most about this many distinct terms in memory, spill the rest to temporary files");
+            println(out, "\t-j<number>: tokenize on this many threads (0 for one per core) (output is the same as with one thread)");
+            println(out, "\t--checkpoint <file>: save progress to this file every so often, so an interrupted run can be resumed");
+            println(out, "\t--checkpoint-every <seconds>: how often to save progress (600 by default)");
+            println(out, "\t--resume: continue from the checkpoint (<corpus.txt>.checkpoint unless --checkpoint is given) if there is one");
+            println(out, "\t--save <file>: save the counts to a snapshot file that later runs can add to with --base");
+            println(out, "\t--base <file>: add the counts of this run to the ones in a snapshot saved with --save (same options that change what gets counted, and the same userdict.csv and userfilters.csv, only)");
+            println(out, "\t--binary <file>: write a binary frequency list to this file instead of text to standard output");
+            println(out, "\t--per-source: add a column with the count in each input file, in the order the files were found in, before any spellings");
+            println(out, "\t--metrics <file>: write lines and tokens per second, why tokens got filtered and the time spent in each stage to this json file");
+            println(out, "\t--metrics-every <seconds>: how often to update the metrics file during the run (10 by default)");
             println(out, "Options must be stated separately (-p -d), not bundled (-pd)");
             println(out, "");
             println(out, "Output goes to standard output. Use > to output to a file.");
+            println(out, "");
+            println(out, "Usage: java -jar analyzer.jar merge <list.bin>+ (options)*");
+            println(out, "\tMerges binary frequency lists written with --binary. Their lines are numbered one after another in the order given.");
+            println(out, "\tUnderstands -c, --top, --min-count, --binary and --spill (how many rows to sort in memory at once).");
+            println(out, "");
+            println(out, "Usage: java -jar analyzer.jar serve (options)*");
+            println(out, "\tKeeps kuromoji loaded and analyzes text sent to http://127.0.0.1:<port>/ with the options given here.");
+            println(out, "\tPOST /analyze with one document as the body, or POST /batch with a json array of documents that get counted together.");
+            println(out, "\tAdd ?format=json for json instead of tsv, and ?top=<number> or ?min-count=<number> to override --top and --min-count.");
+            println(out, "\tBodies over 64 MiB get turned away with 413.");
+            println(out, "\t--port <number>: port to listen on (8765 by default)");
+            println(out, "\t-j<number>: handle this many requests at once (one per core by default)");
+        }
+        else if (arguments.peekFirst().equals("merge"))
+        {
+            arguments.removeFirst();
+            ArrayList<String> lists = new ArrayList<>();
+            while(!(arguments.size() == 0))
+            {
+                String argument = arguments.removeFirst();
+                if(argument.equals("-c")) options.enable_linecounter = true;
+                else if(argument.equals("--top") || argument.equals("--min-count") || argument.equals("--spill"))
+                {
+                    int value;
+                    try
+                    {
+                        value = Integer.parseInt(arguments.removeFirst());
+                    }
+                    catch (NoSuchElementException|NumberFormatException e)
+                    {
+                        System.err.println("Expected a number after " + argument);
+                        return;
+                    }
+                    if(argument.equals("--top"))
+                        options.output_top = value;
+                    else if(argument.equals("--min-count"))
+                        options.output_min_count = value;
+                    else
+                        options.spill_threshold = value;
+                }
+                else if(argument.equals("--binary"))
+                {
+                    options.binary_output = arguments.pollFirst();
+                    if(options.binary_output == null)
+                    {
+                        System.err.println("Expected a file name after " + argument);
+                        return;
+                    }
+                }
+                else
+                    lists.add(argument);
+            }
+            try
+            {
+                new Analyzer(options.build()).merge(lists, list_out, ConsoleMain::report);
+            }
+            catch(IOException e)
+            { /**/ }
         }
         else
         {
-            String filename = arguments.removeFirst();
+            boolean serve = arguments.peekFirst().equals("serve");
+            int port = 8765;
+            ArrayList<String> filenames = new ArrayList<>();
+            if(serve)
+            {
+                arguments.removeFirst();
+                options.worker_threads = 0;
+            }
+            else
+                filenames.add(arguments.removeFirst());
 
             while(!(arguments.size() == 0))
             {
                 String argument = arguments.removeFirst();
-                if(argument.equals("-p")) filter_punctuation_enabled = false;
-                if(argument.equals("-w")) filter_dictionary_enabled = false;
-                if(argument.equals("-f")) enable_userfilter = false;
-                if(argument.equals("-d")) enable_userdictionary = false;
-                if(argument.equals("-s")) skip_furigana_formatting = true;
-                if(argument.equals("-k")) filter_kanji_only = true;
-                if(argument.equals("-c")) enable_linecounter = true;
-                if(argument.equals("-l")) pull_out_spellings = true;
-                if(argument.equals("-x")) lexeme_only = true;
-                if(argument.equals("-a")) enable_append_line = true;
-                if(argument.equals("-r")) enable_sentence_reading = true;
-                if(argument.equals("-rc")) enable_sentence_reading_cloze = true;
+                if(argument.equals("-p")) options.filter_punctuation_enabled = false;
+                if(argument.equals("-w")) options.filter_dictionary_enabled = false;
+                if(argument.equals("-f")) options.enable_userfilter = false;
+                if(argument.equals("-d")) options.enable_userdictionary = false;
+                if(argument.equals("-s")) options.skip_furigana_formatting = true;
+                if(argument.equals("-k")) options.filter_kanji_only = true;
+                if(argument.equals("-c")) options.enable_linecounter = true;
+                if(argument.equals("-l")) options.pull_out_spellings = true;
+                if(argument.equals("-x")) options.lexeme_only = true;
+                if(argument.equals("-a")) options.enable_append_line = true;
+                if(argument.equals("-r")) options.enable_sentence_reading = true;
+                if(argument.equals("-rc")) options.enable_sentence_reading_cloze = true;
                 if(argument.matches("^-i\\d+$"))
                 {
                     Pattern pattern = Pattern.compile("^-i(\\d+)$");
                     Matcher matcher = pattern.matcher(argument);
                     if(matcher.find())
-                        sentence_index = Integer.parseInt(matcher.group(1));
+                        options.sentence_index = Integer.parseInt(matcher.group(1));
+                }
+                if(argument.matches("^-n\\d+$"))
+                {
+                    Pattern pattern = Pattern.compile("^-n(\\d+)$");
+                    Matcher matcher = pattern.matcher(argument);
+                    if(matcher.find())
+                        options.ngram_length = Integer.parseInt(matcher.group(1));
                 }
                 if(argument.matches("^-m\\d+$"))
                 {
                     Pattern pattern = Pattern.compile("^-m(\\d+)$");
                     Matcher matcher = pattern.matcher(argument);
                     if(matcher.find())
-                        deduplicate_longer_than = Integer.parseInt(matcher.group(1));
+                        options.deduplicate_longer_than = Integer.parseInt(matcher.group(1));
+                }
+                if(argument.equals("--top") || argument.equals("--min-count") || argument.equals("--spill") || argument.equals("--checkpoint-every") || argument.equals("--metrics-every") || argument.equals("--port"))
+                {
+                    int value;
+                    try
+                    {
+                        value = Integer.parseInt(arguments.removeFirst());
+                    }
+                    catch (NoSuchElementException|NumberFormatException e)
+                    {
+                        System.err.println("Expected a number after " + argument);
+                        return;
+                    }
+                    if(argument.equals("--top"))
+                        options.output_top = value;
+                    else if(argument.equals("--min-count"))
+                        options.output_min_count = value;
+                    else if(argument.equals("--spill"))
+                        options.spill_threshold = value;
+                    else if(argument.equals("--port"))
+                        port = value;
+                    else if(argument.equals("--metrics-every"))
+                        options.metrics_interval = value;
+                    else
+                        options.checkpoint_interval = value;
+                }
+                if(argument.equals("--checkpoint") || argument.equals("--save") || argument.equals("--base") || argument.equals("--binary") || argument.equals("--metrics"))
+                {
+                    String value = arguments.pollFirst();
+                    if(value == null)
+                    {
+                        System.err.println("Expected a file name after " + argument);
+                        return;
+                    }
+                    if(argument.equals("--checkpoint"))
+                        options.checkpoint_file = value;
+                    else if(argument.equals("--save"))
+                        options.save_file = value;
+                    else if(argument.equals("--base"))
+                        options.base_file = value;
+                    else if(argument.equals("--metrics"))
+                        options.metrics_file = value;
+                    else
+                        options.binary_output = value;
+                }
+                if(argument.equals("--resume")) options.resume = true;
+                if(argument.equals("--per-source")) options.per_source_counts = true;
+                if(argument.equals("--skip-filtered")) options.ngrams_skip_filtered = true;
+                if(!argument.startsWith("-")) filenames.add(argument);
+                if(argument.equals("--dedup-bloom"))
+                {
+                    try
+                    {
+                        options.deduplicate_false_positive_rate = Double.parseDouble(arguments.removeFirst());
+                    }
+                    catch (NoSuchElementException|NumberFormatException e)
+                    {
+                        System.err.println("Expected a false positive rate after " + argument);
+                        return;
+                    }
+                }
+                if(argument.matches("^-j\\d+$"))
+                {
+                    Pattern pattern = Pattern.compile("^-j(\\d+)$");
+                    Matcher matcher = pattern.matcher(argument);
+                    if(matcher.find())
+                        options.worker_threads = Integer.parseInt(matcher.group(1));
                 }
             }
-            try
+            if(serve)
             {
-                run(filename, out, (text,length)->
+                if(!filenames.isEmpty())
                 {
-                    String mini_text = text.split(":")[0];
-                    if(mini_text.equals(last_message))
-                        System.err.printf("\r");
-                    else
-                        System.err.printf("\n");
-                    if(length == 0.0)
-                        System.err.printf(text);
-                    else if(length > 0.0)
-                        System.err.printf(text + " %.02f%%", length*100);
-                    else if(!text.equals("Done"))
-                        System.err.printf(text + " ...");
-                    last_message = mini_text;
-                });
+                    System.err.println("The server takes its input over http, not from files");
+                    return;
+                }
+                try
+                {
+                    new Analyzer(options.build()).serve(port, ConsoleMain::report);
+                }
+                catch(IOException e)
+                { /**/ }
+                return;
+            }
+            if(options.resume && options.checkpoint_file == null)
+            {
+                // somewhere a directory or glob won't pick it up as input
+                if(filenames.size() == 1 && new File(filenames.get(0)).isFile())
+                    options.checkpoint_file = filenames.get(0) + ".checkpoint";
+                else
+                    options.checkpoint_file = "analyzer.checkpoint";
+            }
+            try
+            {
+                new Analyzer(options.build()).run(filenames, list_out, ConsoleMain::report);
             }
             catch(IOException e)
             { /**/ }
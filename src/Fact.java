@@ -0,0 +1,15 @@
+/*
+ * Licensed under a public domain‐like license. See Main.java for license text.
+ */
+
+// one row of a frequency list: how often a term was seen, and its fields joined by tabs
+class Fact
+{
+    Fact(Integer count, String id)
+    {
+        this.count = count;
+        this.id = id;
+    }
+    Integer count;
+    String id;
+}
@@ -0,0 +1,87 @@
+import java.util.HashMap;
+
+/*
+ * Licensed under a public domain‐like license. See Main.java for license text.
+ */
+
+// userfilters.csv rules compiled into a trie over (word, pos level 1, 2, 3, 4). An empty field in a rule is a wildcard,
+// so each node has its exact branches plus one branch for "anything". A token only ever walks the branches that
+// can still match it instead of being compared against every rule.
+class FilterIndex
+{
+    private static class Node
+    {
+        HashMap<String, Node> exact;
+        Node any;
+        boolean terminal; // some rule ends here, everything after this is a wildcard
+    }
+
+    private static final int levels = 5;
+    private final Node root = new Node();
+    private boolean empty = true;
+
+    void add(FilterInfo f)
+    {
+        if(f == null) return;
+        String[] fields = {f.word, f.a, f.b, f.c, f.d};
+        int[] modes = {f.mode_word, f.mode_a, f.mode_b, f.mode_c, f.mode_d};
+
+        int last = -1;
+        for(int level = 0; level < levels; level++)
+            if(modes[level] == 1)
+                last = level;
+        // all wildcards never matched anything
+        if(last < 0) return;
+
+        Node node = root;
+        for(int level = 0; level <= last; level++)
+        {
+            if(modes[level] == 1)
+            {
+                if(node.exact == null)
+                    node.exact = new HashMap<>();
+                node = node.exact.computeIfAbsent(fields[level], k -> new Node());
+            }
+            else
+            {
+                if(node.any == null)
+                    node.any = new Node();
+                node = node.any;
+            }
+        }
+        node.terminal = true;
+        empty = false;
+    }
+
+    boolean matches(TokenFields token)
+    {
+        if(empty) return false;
+        return matches(root, 0, token);
+    }
+
+    // TokenFields caches what it has looked up, so a level is only fetched from the token once, and only if some
+    // rule on the way names it
+    private static String field(TokenFields token, int level)
+    {
+        switch(level)
+        {
+            case 0: return token.written_base_form();
+            case 1: return token.pos1();
+            case 2: return token.pos2();
+            case 3: return token.pos3();
+            default: return token.pos4();
+        }
+    }
+
+    private static boolean matches(Node node, int level, TokenFields token)
+    {
+        if(node.terminal) return true;
+        if(level == levels) return false;
+        if(node.exact != null)
+        {
+            Node next = node.exact.get(field(token, level));
+            if(next != null && matches(next, level + 1, token)) return true;
+        }
+        return node.any != null && matches(node.any, level + 1, token);
+    }
+}
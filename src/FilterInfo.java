@@ -0,0 +1,17 @@
+/*
+ * Licensed under a public domain‐like license. See Main.java for license text.
+ */
+
+// one rule of userfilters.csv, see Analyzer.filter_builder. A field only has to match if its mode is 1.
+class FilterInfo {
+    String word = "";
+    String a = "";
+    String b = "";
+    String c = "";
+    String d = "";
+    int mode_word = 0;
+    int mode_a = 0;
+    int mode_b = 0;
+    int mode_c = 0;
+    int mode_d = 0;
+}
@@ -0,0 +1,202 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/*
+ * Licensed under a public domain‐like license. See Main.java for license text.
+ */
+
+// Binary frequency list: a header, then every term sorted by identity, so any number of lists can be streamed
+// together one term at a time. Identities only store what differs from the one before them, and all numbers
+// are varints. Along with its first line, each term and spelling carries its number in the table it came from,
+// which orders the ones that first showed up on the same line.
+class FrequencyList
+{
+    private static final int magic = 0x41465251;
+    private static final int version = 1;
+
+    static class Spelling
+    {
+        String name;
+        int count;
+        long first;
+        int rank;
+    }
+    static class Record
+    {
+        String identity;
+        int count;
+        long first;
+        int rank;
+        String line; // extra fields of the first occurrence, or null
+        Spelling[] spellings;
+    }
+
+    static class Writer implements Closeable
+    {
+        private final DataOutputStream out;
+        private byte[] previous = new byte[0];
+
+        Writer(Path path, int options, long line_count) throws IOException
+        {
+            out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path), 1<<16));
+            out.writeInt(magic);
+            writeVarLong(out, version);
+            writeVarLong(out, options);
+            writeVarLong(out, line_count);
+        }
+
+        // records have to come in identity order
+        void write(Record record) throws IOException
+        {
+            byte[] identity = record.identity.getBytes(StandardCharsets.UTF_8);
+            int shared = 0;
+            int limit = Math.min(identity.length, previous.length);
+            while(shared < limit && identity[shared] == previous[shared])
+                shared++;
+            out.writeByte(1);
+            writeVarLong(out, shared);
+            writeVarLong(out, identity.length - shared);
+            out.write(identity, shared, identity.length - shared);
+            previous = identity;
+
+            writeVarLong(out, record.count);
+            writeVarLong(out, record.first);
+            writeVarLong(out, record.rank);
+            writeString(out, record.line);
+            writeVarLong(out, record.spellings.length);
+            for(Spelling spelling : record.spellings)
+            {
+                writeString(out, spelling.name);
+                writeVarLong(out, spelling.count);
+                writeVarLong(out, spelling.first);
+                writeVarLong(out, spelling.rank);
+            }
+        }
+
+        public void close() throws IOException
+        {
+            out.writeByte(0);
+            out.close();
+        }
+    }
+
+    static class Reader implements Closeable
+    {
+        private final DataInputStream in;
+        private final long offset;
+        private byte[] previous = new byte[0];
+        final int options;
+        final long line_count;
+        Record current;
+
+        // offset gets added to every first line, e.g. to put a list after the ones before it
+        Reader(Path path, long offset) throws IOException
+        {
+            this.offset = offset;
+            in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 1<<16));
+            try
+            {
+                if(in.readInt() != magic || readVarLong(in) != version)
+                    throw new IOException("Not a frequency list: " + path);
+                options = (int)readVarLong(in);
+                line_count = readVarLong(in);
+            }
+            catch (IOException e)
+            {
+                in.close();
+                throw e;
+            }
+        }
+
+        boolean next() throws IOException
+        {
+            if(in.readByte() == 0)
+            {
+                current = null;
+                return false;
+            }
+            int shared = (int)readVarLong(in);
+            int rest = (int)readVarLong(in);
+            if(shared > previous.length || rest < 0)
+                throw new IOException("Corrupt frequency list");
+            byte[] identity = Arrays.copyOf(previous, shared + rest);
+            in.readFully(identity, shared, rest);
+            previous = identity;
+
+            Record record = new Record();
+            record.identity = new String(identity, StandardCharsets.UTF_8);
+            record.count = (int)readVarLong(in);
+            record.first = readVarLong(in) + offset;
+            record.rank = (int)readVarLong(in);
+            record.line = readString(in);
+            record.spellings = new Spelling[(int)readVarLong(in)];
+            for(int i = 0; i < record.spellings.length; i++)
+            {
+                Spelling spelling = new Spelling();
+                spelling.name = readString(in);
+                spelling.count = (int)readVarLong(in);
+                spelling.first = readVarLong(in) + offset;
+                spelling.rank = (int)readVarLong(in);
+                record.spellings[i] = spelling;
+            }
+            current = record;
+            return true;
+        }
+
+        public void close() throws IOException
+        {
+            in.close();
+        }
+    }
+
+    static void writeVarLong(DataOutputStream out, long value) throws IOException
+    {
+        while((value & ~0x7FL) != 0)
+        {
+            out.writeByte((int)(value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int)value);
+    }
+
+    static long readVarLong(DataInputStream in) throws IOException
+    {
+        long value = 0;
+        for(int shift = 0; shift < 64; shift += 7)
+        {
+            int b = in.readUnsignedByte();
+            value |= (long)(b & 0x7F) << shift;
+            if((b & 0x80) == 0)
+                return value;
+        }
+        throw new IOException("Corrupt frequency list");
+    }
+
+    // length + 1 and then the utf-8 bytes, 0 for null
+    static void writeString(DataOutputStream out, String s) throws IOException
+    {
+        if(s == null)
+        {
+            out.writeByte(0);
+            return;
+        }
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        writeVarLong(out, bytes.length + 1L);
+        out.write(bytes);
+    }
+
+    static String readString(DataInputStream in) throws IOException
+    {
+        long length = readVarLong(in);
+        if(length == 0)
+            return null;
+        if(length - 1 > Integer.MAX_VALUE)
+            throw new IOException("Corrupt frequency list");
+        byte[] bytes = new byte[(int)(length - 1)];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,388 @@
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.function.LongFunction;
+import java.util.function.LongUnaryOperator;
+
+/*
+ * Licensed under a public domain‐like license. See Main.java for license text.
+ */
+
+// Lets a run count more distinct terms than fit in memory. Tables that get too big are written out to temporary
+// files as frequency lists, and at the end all of them are merged back together one term at a time.
+// The merged rows are then sorted for output the same way, spilling sorted batches of rows if there are too many.
+// Ties are broken by first line and then by the term's number in the table that first saw it, which is exactly
+// the order an in-memory table ends up with. The merge command feeds saved frequency lists through here as well.
+class FrequencySpill
+{
+    private static class Run
+    {
+        Path path;
+        long offset; // added to first lines
+        boolean temporary;
+    }
+    private final ArrayList<Run> runs = new ArrayList<>();
+    private boolean closed; // runs were deleted, workers that are still spilling delete their own
+    private final int rows_in_memory;
+    private final int options; // of the lists it writes, see Checkpoint.options_of
+    private LongUnaryOperator line_number = LongUnaryOperator.identity();
+
+    FrequencySpill(int rows_in_memory, int options)
+    {
+        this.rows_in_memory = Math.max(1, rows_in_memory);
+        this.options = options;
+    }
+
+    private static Path createTempFile() throws IOException
+    {
+        return Files.createTempFile("analyzer", ".run");
+    }
+
+    private static DataOutputStream openOutput(Path path) throws IOException
+    {
+        return new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path), 1<<16));
+    }
+
+    private static DataInputStream openInput(Path path) throws IOException
+    {
+        return new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 1<<16));
+    }
+
+    // safe to call from several workers at once
+    void add(miniFrequencyData data) throws IOException
+    {
+        if(data.size() == 0) return;
+        Run run = new Run();
+        run.path = createTempFile();
+        run.temporary = true;
+        try (FrequencyList.Writer out = new FrequencyList.Writer(run.path, options, data.line_count))
+        {
+            data.writeList(out);
+        }
+        catch (IOException | RuntimeException e)
+        {
+            Files.deleteIfExists(run.path);
+            throw e;
+        }
+        synchronized(runs)
+        {
+            if(!closed)
+            {
+                runs.add(run);
+                return;
+            }
+        }
+        Files.deleteIfExists(run.path);
+    }
+
+    // a saved frequency list to merge in as is, its lines numbered starting at offset
+    void addList(Path path, long offset)
+    {
+        Run run = new Run();
+        run.path = path;
+        run.offset = offset;
+        synchronized(runs)
+        {
+            runs.add(run);
+        }
+    }
+
+    boolean spilled()
+    {
+        synchronized(runs)
+        {
+            return !runs.isEmpty();
+        }
+    }
+
+    // applied to first lines while merging, see miniFrequencyData.renumber
+    void renumber(LongUnaryOperator line_number)
+    {
+        this.line_number = line_number;
+    }
+
+    private static class Row
+    {
+        int count;
+        long first;
+        int rank;
+        String text;
+    }
+
+    private static boolean before(long first_a, int rank_a, long first_b, int rank_b)
+    {
+        return first_a < first_b || first_a == first_b && rank_a < rank_b;
+    }
+
+    private static final Comparator<Row> output_order = (a, b) ->
+    {
+        if(a.count != b.count) return Integer.compare(b.count, a.count);
+        if(a.first != b.first) return Long.compare(a.first, b.first);
+        return Integer.compare(a.rank, b.rank);
+    };
+
+    private static final Comparator<FrequencyList.Spelling> spelling_order = (a, b) ->
+    {
+        if(a.count != b.count) return Integer.compare(b.count, a.count);
+        if(a.first != b.first) return Long.compare(a.first, b.first);
+        return Integer.compare(a.rank, b.rank);
+    };
+
+    private static class RowReader implements Closeable
+    {
+        private final DataInputStream in;
+        Row current;
+        RowReader(Path path) throws IOException
+        {
+            in = openInput(path);
+        }
+        boolean next() throws IOException
+        {
+            if(!in.readBoolean())
+            {
+                current = null;
+                return false;
+            }
+            Row row = new Row();
+            row.count = in.readInt();
+            row.first = in.readLong();
+            row.rank = in.readInt();
+            row.text = FrequencyList.readString(in);
+            current = row;
+            return true;
+        }
+        public void close() throws IOException
+        {
+            in.close();
+        }
+    }
+
+    // every run's copy of one term, combined into one
+    private FrequencyList.Record combine(ArrayList<FrequencyList.Record> copies)
+    {
+        FrequencyList.Record earliest = copies.get(0);
+        int count = 0;
+        for(FrequencyList.Record copy : copies)
+        {
+            count += copy.count;
+            if(before(copy.first, copy.rank, earliest.first, earliest.rank))
+                earliest = copy;
+        }
+
+        FrequencyList.Record combined = new FrequencyList.Record();
+        combined.identity = earliest.identity;
+        combined.count = count;
+        combined.first = line_number.applyAsLong(earliest.first);
+        combined.rank = earliest.rank;
+        combined.line = earliest.line;
+
+        HashMap<String, FrequencyList.Spelling> merged = new HashMap<>();
+        for(FrequencyList.Record copy : copies)
+        {
+            for(FrequencyList.Spelling spelling : copy.spellings)
+            {
+                FrequencyList.Spelling entry = merged.get(spelling.name);
+                if(entry == null)
+                    merged.put(spelling.name, spelling);
+                else
+                {
+                    entry.count += spelling.count;
+                    if(before(spelling.first, spelling.rank, entry.first, entry.rank))
+                    {
+                        entry.first = spelling.first;
+                        entry.rank = spelling.rank;
+                    }
+                }
+            }
+        }
+        ArrayList<FrequencyList.Spelling> spellings = new ArrayList<>(merged.values());
+        spellings.sort(spelling_order);
+        for(FrequencyList.Spelling spelling : spellings)
+            spelling.first = line_number.applyAsLong(spelling.first);
+        combined.spellings = spellings.toArray(new FrequencyList.Spelling[0]);
+        return combined;
+    }
+
+    private static Row row_of(FrequencyList.Record record, LongFunction<String> line_label)
+    {
+        Row row = new Row();
+        row.count = record.count;
+        row.first = record.first;
+        row.rank = record.rank;
+
+        StringBuilder text = new StringBuilder();
+        text.append(record.count).append('\t').append(record.identity);
+        if(line_label != null)
+            text.append('\t').append(line_label.apply(record.first));
+        if(record.line != null)
+            text.append('\t').append(record.line);
+        // only -l and -x count spellings
+        for(FrequencyList.Spelling spelling : record.spellings)
+            text.append('\t').append(spelling.name).append('\t').append(spelling.count);
+        row.text = text.toString();
+        return row;
+    }
+
+    // calls combined with every term of every run in identity order
+    private interface TermConsumer
+    {
+        void accept(FrequencyList.Record combined) throws IOException;
+    }
+
+    private void merge_runs(TermConsumer combined) throws IOException
+    {
+        PriorityQueue<FrequencyList.Reader> queue = new PriorityQueue<>((a, b) -> a.current.identity.compareTo(b.current.identity));
+        try
+        {
+            for(Run run : runs)
+            {
+                FrequencyList.Reader reader = new FrequencyList.Reader(run.path, run.offset);
+                if(reader.next())
+                    queue.add(reader);
+                else
+                    reader.close();
+            }
+
+            ArrayList<FrequencyList.Record> copies = new ArrayList<>();
+            while(!queue.isEmpty())
+            {
+                copies.clear();
+                String identity = queue.peek().current.identity;
+                while(!queue.isEmpty() && queue.peek().current.identity.equals(identity))
+                {
+                    FrequencyList.Reader reader = queue.poll();
+                    copies.add(reader.current);
+                    if(reader.next())
+                        queue.add(reader);
+                    else
+                        reader.close();
+                }
+                combined.accept(combine(copies));
+            }
+        }
+        finally
+        {
+            for(FrequencyList.Reader reader : queue)
+                reader.close();
+        }
+    }
+
+    // deletes the temporary files, also of a run that never got to write anything
+    void delete_runs() throws IOException
+    {
+        ArrayList<Run> deleted;
+        synchronized(runs)
+        {
+            closed = true;
+            deleted = new ArrayList<>(runs);
+            runs.clear();
+        }
+        for(Run run : deleted)
+            if(run.temporary)
+                Files.deleteIfExists(run.path);
+    }
+
+    // everything merged into a single frequency list
+    void writeList(Path path, long line_count) throws IOException
+    {
+        try (FrequencyList.Writer out = new FrequencyList.Writer(path, options, line_count))
+        {
+            merge_runs(out::write);
+        }
+        finally
+        {
+            delete_runs();
+        }
+    }
+
+    private static Path writeRows(ArrayList<Row> rows) throws IOException
+    {
+        rows.sort(output_order);
+        Path path = createTempFile();
+        try (DataOutputStream out = openOutput(path))
+        {
+            for(Row row : rows)
+            {
+                out.writeBoolean(true);
+                out.writeInt(row.count);
+                out.writeLong(row.first);
+                out.writeInt(row.rank);
+                FrequencyList.writeString(out, row.text);
+            }
+            out.writeBoolean(false);
+        }
+        return path;
+    }
+
+    // top, min_count and line_label work like they do for miniFrequencyData.getSortedFrequencyList
+    void write(TsvWriter out, int top, int min_count, LongFunction<String> line_label) throws IOException
+    {
+        PriorityQueue<Row> best = top > 0 ? new PriorityQueue<>(output_order.reversed()) : null;
+        ArrayList<Row> rows = new ArrayList<>();
+        ArrayList<Path> row_runs = new ArrayList<>();
+        PriorityQueue<RowReader> row_queue = new PriorityQueue<>((a, b) -> output_order.compare(a.current, b.current));
+        try
+        {
+            merge_runs((combined) ->
+            {
+                if(combined.count < min_count)
+                    return;
+                Row row = row_of(combined, line_label);
+                if(best != null)
+                {
+                    best.add(row);
+                    if(best.size() > top)
+                        best.poll();
+                }
+                else
+                {
+                    rows.add(row);
+                    if(rows.size() >= rows_in_memory)
+                    {
+                        row_runs.add(writeRows(rows));
+                        rows.clear();
+                    }
+                }
+            });
+            if(best != null)
+                rows.addAll(best);
+
+            if(row_runs.isEmpty())
+            {
+                rows.sort(output_order);
+                for(Row row : rows)
+                    out.write(row.text).end_row();
+                return;
+            }
+
+            row_runs.add(writeRows(rows));
+            rows.clear();
+            for(Path run : row_runs)
+            {
+                RowReader reader = new RowReader(run);
+                if(reader.next())
+                    row_queue.add(reader);
+                else
+                    reader.close();
+            }
+            while(!row_queue.isEmpty())
+            {
+                RowReader reader = row_queue.poll();
+                out.write(reader.current.text).end_row();
+                if(reader.next())
+                    row_queue.add(reader);
+                else
+                    reader.close();
+            }
+        }
+        finally
+        {
+            for(RowReader reader : row_queue)
+                reader.close();
+            for(Path run : row_runs)
+                Files.deleteIfExists(run);
+            delete_runs();
+        }
+    }
+}
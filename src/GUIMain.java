@@ -1,6 +1,14 @@
 import javax.swing.*;
+import javax.swing.table.DefaultTableModel;
 import java.awt.*;
 import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
 import java.util.function.BiFunction;
 
 import static java.lang.Math.min;
@@ -10,7 +18,12 @@ import static java.lang.Math.min;
  */
 
 public class GUIMain extends Main {
-    private static Thread worker = null;
+    private static RunTask task = null;
+    // how often the window catches up with a run (ms), every how many of those it loads the preview again, and how
+    // many of the top terms so far that shows
+    private static final int refresh_every = 100;
+    private static final int preview_every = 10;
+    private static final int preview_top = 20;
 
     static private JCheckBox option_enable_filter_dictionary;
     static private JCheckBox option_enable_filter_punctuation;
@@ -26,6 +39,193 @@ public class GUIMain extends Main {
     
     static private JComboBox<String> option_respelling_mode;
 
+    // Progress a run reported. The run reports as often as it likes and only ever replaces the latest one, and the
+    // window picks up whatever's latest every refresh_every ms, so a fast run can't flood the event queue. Text and
+    // length get replaced together, so the window never sees the text of one report with the length of another.
+    private static class RunProgress
+    {
+        final String text;
+        final double length;
+
+        RunProgress(String text, double length)
+        {
+            this.text = text;
+            this.length = length;
+        }
+    }
+
+    // One run in the background. Everything else here happens on the EDT.
+    private static class RunTask extends SwingWorker<Void, Void>
+    {
+        private final Analyzer analyzer;
+        private final String input;
+        private final String output;
+        private final JProgressBar progress;
+        private final JLabel throughput;
+        private final DefaultTableModel preview_rows;
+        private final Runnable finished;
+        private volatile RunProgress reported = new RunProgress("Starting", -1.0);
+        private final Timer timer = new Timer(refresh_every, (e) -> refresh());
+        private int refreshes = 0;
+        // when lines first got analyzed, and how far along the run was by then
+        private long analysis_start = -1;
+        private long start_lines;
+        private double start_length;
+        private SwingWorker<ArrayList<Fact>, Void> preview_loader = null;
+
+        RunTask(Analyzer analyzer, String input, String output, JProgressBar progress, JLabel throughput, DefaultTableModel preview_rows, Runnable finished)
+        {
+            this.analyzer = analyzer;
+            this.input = input;
+            this.output = output;
+            this.progress = progress;
+            this.throughput = throughput;
+            this.preview_rows = preview_rows;
+            this.finished = finished;
+        }
+
+        void start()
+        {
+            timer.start();
+            execute();
+        }
+
+        void stop()
+        {
+            analyzer.cancel();
+            report("Cancelling", -1.0);
+        }
+
+        private void report(String text, Double length)
+        {
+            reported = new RunProgress(text, length);
+        }
+
+        @Override
+        protected Void doInBackground() throws IOException
+        {
+            // the list goes to a file next to the output first, and only replaces it once the run is done, so
+            // cancelling or failing leaves whatever was there before alone
+            Path target = Paths.get(output);
+            Path temp = Paths.get(output + ".tmp");
+            boolean completed = false;
+            try
+            {
+                try (OutputStream writer = new FileOutputStream(temp.toFile()))
+                {
+                    completed = analyzer.run(input, writer, this::report);
+                }
+                if(completed)
+                    Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+            finally
+            {
+                if(!completed)
+                    Files.deleteIfExists(temp);
+            }
+            return null;
+        }
+
+        @Override
+        protected void done()
+        {
+            timer.stop();
+            refresh();
+            refresh_preview();
+            try
+            {
+                get();
+            }
+            catch (ExecutionException e)
+            {
+                if(e.getCause() instanceof FileNotFoundException)
+                    progress.setString("Failed to open output file.");
+                else if(e.getCause() instanceof IOException)
+                    progress.setString("Error while writing output file.");
+                else
+                    progress.setString(e.getCause().toString());
+            }
+            catch (InterruptedException|CancellationException e) { /* */ }
+            finished.run();
+        }
+
+        private void refresh()
+        {
+            RunProgress latest = reported;
+            String text = latest.text;
+            double length = latest.length;
+            progress.setString(text);
+            if(text.equals("Done"))
+            {
+                progress.setIndeterminate(false);
+                progress.setValue(0);
+            }
+            else if(length >= 0.0)
+            {
+                progress.setIndeterminate(false);
+                progress.setMaximum(100000000);
+                progress.setValue((int)(length*100000000));
+            }
+            else
+            {
+                progress.setIndeterminate(true);
+            }
+
+            long lines = analyzer.lines_analyzed();
+            long now = System.nanoTime();
+            if(analysis_start < 0 && lines > 0)
+            {
+                analysis_start = now;
+                start_lines = lines;
+                start_length = Math.max(length, 0.0);
+            }
+            else if(analysis_start >= 0)
+            {
+                double seconds = (now - analysis_start)/1e9;
+                String shown = String.format("%,d lines, %,d lines/s", lines, (long)((lines - start_lines)/seconds));
+                // the input is read front to back, so the rest of it should take about as long per byte
+                if(length > start_length && length < 1.0)
+                {
+                    long left = (long)(seconds*(1.0 - length)/(length - start_length));
+                    shown += String.format(", about %d:%02d left", left/60, left%60);
+                }
+                throughput.setText(shown);
+            }
+
+            if(++refreshes % preview_every == 0)
+                refresh_preview();
+        }
+
+        // loads the preview off the EDT, unless the last one is still loading
+        private void refresh_preview()
+        {
+            if(preview_loader != null && !preview_loader.isDone())
+                return;
+            preview_loader = new SwingWorker<ArrayList<Fact>, Void>()
+            {
+                @Override
+                protected ArrayList<Fact> doInBackground()
+                {
+                    return analyzer.preview();
+                }
+
+                @Override
+                protected void done()
+                {
+                    try
+                    {
+                        ArrayList<Fact> top = get();
+                        preview_rows.setRowCount(0);
+                        for(Fact fact : top)
+                            preview_rows.addRow(new Object[]{fact.count, fact.id.replace('\t', ' ')});
+                    }
+                    catch (InterruptedException|ExecutionException e) { /* keep showing the last one */ }
+                }
+            };
+            preview_loader.execute();
+        }
+    }
+
     public static void main(String[] args)
     {
         System.out.println("To avoid the GUI, use command line parameters. See --help.");
@@ -52,10 +252,16 @@ public class GUIMain extends Main {
             JLabel explanation2 = new JLabel("Input must be in UTF-8.");
             JButton input = new JButton("Input");
             JLabel sentence_index_explanation = new JLabel("Index of sentence for TSV input (analyze whole line if -1):");
+            JLabel worker_threads_explanation = new JLabel("Tokenizer threads (one per core if 0):");
+            JLabel output_top_explanation = new JLabel("Only output this many of the top terms (all if 0):");
+            JLabel output_min_count_explanation = new JLabel("Only output terms seen at least this many times:");
 
             JButton write = new JButton("Output");
             JTextField field_input = new JTextField("");
             JTextField field_sentence_index_input = new JTextField("-1");
+            JTextField field_worker_threads_input = new JTextField("1");
+            JTextField field_output_top_input = new JTextField("0");
+            JTextField field_output_min_count_input = new JTextField("1");
             JTextField field_write = new JTextField("");
 
             JLabel explanation3 = new JLabel("Filters:");
@@ -79,10 +285,26 @@ public class GUIMain extends Main {
 
             JButton run = new JButton("Run");
             JProgressBar progress = new JProgressBar();
+            JButton cancel = new JButton("Cancel");
+            JLabel throughput = new JLabel("");
+            DefaultTableModel preview_rows = new DefaultTableModel(new Object[]{"Count", "Top terms so far"}, 0)
+            {
+                @Override
+                public boolean isCellEditable(int row, int column)
+                {
+                    return false;
+                }
+            };
+            JTable preview_table = new JTable(preview_rows);
+            JScrollPane preview = new JScrollPane(preview_table);
 
 
             input.setMargin(new Insets(5,5,5,5));
             write.setMargin(new Insets(5,5,5,5));
+            cancel.setMargin(new Insets(5,5,5,5));
+            cancel.setEnabled(false);
+            preview_table.getColumnModel().getColumn(0).setPreferredWidth(60);
+            preview_table.getColumnModel().getColumn(1).setPreferredWidth(320);
             progress.setStringPainted(true);
             progress.setString("Waiting to be run");
 
@@ -103,73 +325,83 @@ public class GUIMain extends Main {
 
             run.addActionListener((a)->
             {
-                filter_dictionary_enabled = option_enable_filter_dictionary.isSelected();
-                filter_punctuation_enabled = option_enable_filter_punctuation.isSelected();
-                filter_kanji_only = option_enable_filter_kanji_only.isSelected();
-
-                skip_furigana_formatting = option_strip_furigana.isSelected();
-                enable_sentence_reading = option_enable_sentence_reading.isSelected();
-                enable_sentence_reading_cloze = option_enable_sentence_reading_cloze.isSelected();
-                enable_linecounter = option_enable_linecount.isSelected();
-                enable_append_line = option_append_line.isSelected();
+                AnalyzerConfig.Builder options = new AnalyzerConfig.Builder();
+                options.filter_dictionary_enabled = option_enable_filter_dictionary.isSelected();
+                options.filter_punctuation_enabled = option_enable_filter_punctuation.isSelected();
+                options.filter_kanji_only = option_enable_filter_kanji_only.isSelected();
+
+                options.skip_furigana_formatting = option_strip_furigana.isSelected();
+                options.enable_sentence_reading = option_enable_sentence_reading.isSelected();
+                options.enable_sentence_reading_cloze = option_enable_sentence_reading_cloze.isSelected();
+                options.enable_linecounter = option_enable_linecount.isSelected();
+                options.enable_append_line = option_append_line.isSelected();
                 
-                enable_userdictionary = option_enable_userdict.isSelected();
-                enable_userfilter = option_enable_userfilter.isSelected();
+                options.enable_userdictionary = option_enable_userdict.isSelected();
+                options.enable_userfilter = option_enable_userfilter.isSelected();
                 
 
-                pull_out_spellings = option_respelling_mode.getSelectedItem().equals("Pronunciation");
-                lexeme_only = option_respelling_mode.getSelectedItem().equals("Lexeme");
+                options.pull_out_spellings = option_respelling_mode.getSelectedItem().equals("Pronunciation");
+                options.lexeme_only = option_respelling_mode.getSelectedItem().equals("Lexeme");
 
-                if(worker != null && worker.isAlive()) return;
-                worker = new Thread(() ->
+                if(task != null && !task.isDone()) return;
+                try
                 {
-                    try
-                    {
-                        sentence_index = Integer.parseInt(field_sentence_index_input.getText());
-                        BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(field_write.getText()), "UTF-8"));
-                        run(field_input.getText(), writer, (text, length) ->
-                        {
-                            progress.setString(text);
-                            if(text.equals("Done"))
-                            {
-                                progress.setIndeterminate(false);
-                                progress.setValue(0);
-                            }
-                            else if(length >= 0.0)
-                            {
-                                progress.setIndeterminate(false);
-                                progress.setMaximum(100000000);
-                                progress.setValue((int)(length*100000000));
-                            }
-                            else
-                            {
-                                progress.setIndeterminate(true);
-                            }
-                        });
-                        writer.close();
-                    }
-                    catch (UnsupportedEncodingException e)
-                    {
-                        progress.setString("Failed to open output as UTF-8.");
-                    }
-                    catch (FileNotFoundException e)
-                    {
-                        progress.setString("Failed to open output file.");
-                    }
-                    catch (IOException e)
-                    {
-                        progress.setString("Error while closing output file.");
-                    }
-                    catch (NumberFormatException e)
-                    {
-                        progress.setString("Invalid sentence index.");
-                    }
-                    catch (Exception e)
-                    {
-                        progress.setString(e.toString());
-                    }
+                    options.worker_threads = Integer.parseInt(field_worker_threads_input.getText());
+                }
+                catch (NumberFormatException e)
+                {
+                    progress.setString("Invalid number of tokenizer threads.");
+                    return;
+                }
+                try
+                {
+                    options.output_top = Integer.parseInt(field_output_top_input.getText());
+                    options.output_min_count = Integer.parseInt(field_output_min_count_input.getText());
+                }
+                catch (NumberFormatException e)
+                {
+                    progress.setString("Invalid output limit.");
+                    return;
+                }
+                try
+                {
+                    options.sentence_index = Integer.parseInt(field_sentence_index_input.getText());
+                }
+                catch (NumberFormatException e)
+                {
+                    progress.setString("Invalid sentence index.");
+                    return;
+                }
+                if(field_input.getText().trim().isEmpty())
+                {
+                    progress.setString("No input file chosen.");
+                    return;
+                }
+                if(field_write.getText().trim().isEmpty())
+                {
+                    progress.setString("No output file chosen.");
+                    return;
+                }
+                options.preview_top = preview_top;
+
+                run.setEnabled(false);
+                cancel.setEnabled(true);
+                throughput.setText("");
+                preview_rows.setRowCount(0);
+                task = new RunTask(new Analyzer(options.build()), field_input.getText(), field_write.getText(), progress, throughput, preview_rows, () ->
+                {
+                    run.setEnabled(true);
+                    cancel.setEnabled(false);
                 });
-                worker.start();
+                task.start();
+            });
+            cancel.addActionListener((e)->
+            {
+                if(task != null && !task.isDone())
+                {
+                    task.stop();
+                    cancel.setEnabled(false);
+                }
             });
 
 
@@ -188,6 +420,9 @@ public class GUIMain extends Main {
 
 
             sentence_index_explanation.setBounds(5, row, 280, 20); field_sentence_index_input.setBounds(285, row, 30, 20); row += 25;
+            worker_threads_explanation.setBounds(5, row, 280, 20); field_worker_threads_input.setBounds(285, row, 30, 20); row += 25;
+            output_top_explanation.setBounds(5, row, 280, 20); field_output_top_input.setBounds(285, row, 60, 20); row += 25;
+            output_min_count_explanation.setBounds(5, row, 280, 20); field_output_min_count_input.setBounds(285, row, 60, 20); row += 25;
 
             write.setBounds(5, row, 65, 20); field_write.setBounds(75, row, pane.getWidth()-75-10, 20); row += 25;
 
@@ -208,11 +443,16 @@ public class GUIMain extends Main {
             row += 5;
 
             run.setBounds(5, row, 65, 20); progress.setBounds(75, row, pane.getWidth()-75-10, 20); row += 25;
+            cancel.setBounds(5, row, 65, 20); throughput.setBounds(75, row, pane.getWidth()-75-10, 20); row += 25;
+            preview.setBounds(5, row, pane.getWidth()-10, 160); row += 165;
 
 
             pane.add(explanation1);
             pane.add(explanation2);
             pane.add(sentence_index_explanation);
+            pane.add(worker_threads_explanation);
+            pane.add(output_top_explanation);
+            pane.add(output_min_count_explanation);
             pane.add(explanation3);
             pane.add(explanation4);
 
@@ -220,6 +460,9 @@ public class GUIMain extends Main {
             pane.add(write);
             pane.add(field_input);
             pane.add(field_sentence_index_input);
+            pane.add(field_worker_threads_input);
+            pane.add(field_output_top_input);
+            pane.add(field_output_min_count_input);
             pane.add(field_write);
 
             pane.add(option_enable_filter_dictionary);
@@ -238,6 +481,9 @@ public class GUIMain extends Main {
 
             pane.add(run);
             pane.add(progress);
+            pane.add(cancel);
+            pane.add(throughput);
+            pane.add(preview);
 
 
             pane.setPreferredSize(new Dimension(400, row));
@@ -0,0 +1,231 @@
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/*
+ * Licensed under a public domain‐like license. See Main.java for license text.
+ */
+
+// One input as the analysis sees it: a plain file, a gzip file or one entry of a zip file. Compressed ones get
+// decoded on the fly instead of being unpacked somewhere first. Progress is measured in bytes of the files as
+// they're stored, so it stays right for compressed input.
+class InputSource
+{
+    final Path path;
+    private final boolean gzip;
+    private final ZipFile zip; // shared by every entry of the same file
+    private final ZipEntry entry;
+    final long size; // stored bytes
+
+    private InputSource(Path path, boolean gzip, ZipFile zip, ZipEntry entry, long size)
+    {
+        this.path = path;
+        this.gzip = gzip;
+        this.zip = zip;
+        this.entry = entry;
+        this.size = size;
+    }
+
+    String name()
+    {
+        return entry == null ? path.toString() : path + "!" + entry.getName();
+    }
+
+    boolean compressed()
+    {
+        return gzip || entry != null;
+    }
+
+    // Tells gzip and zip files apart from plain text by their first bytes. Every file in a zip becomes its own input.
+    static ArrayList<InputSource> of(List<Path> paths) throws IOException
+    {
+        ArrayList<InputSource> sources = new ArrayList<>();
+        try
+        {
+            for(Path path : paths)
+            {
+                byte[] magic = new byte[4];
+                int length = 0;
+                try (InputStream in = Files.newInputStream(path))
+                {
+                    for(int n; length < magic.length && (n = in.read(magic, length, magic.length - length)) > 0; )
+                        length += n;
+                }
+                if(length >= 2 && (magic[0] & 0xFF) == 0x1F && (magic[1] & 0xFF) == 0x8B)
+                    sources.add(new InputSource(path, true, null, null, Files.size(path)));
+                else if(length == 4 && magic[0] == 'P' && magic[1] == 'K' && (magic[2] == 3 && magic[3] == 4 || magic[2] == 5 && magic[3] == 6))
+                {
+                    ZipFile zip = new ZipFile(path.toFile());
+                    boolean any = false;
+                    try
+                    {
+                        Enumeration<? extends ZipEntry> entries = zip.entries();
+                        while(entries.hasMoreElements())
+                        {
+                            ZipEntry entry = entries.nextElement();
+                            if(entry.isDirectory()) continue;
+                            sources.add(new InputSource(path, false, zip, entry, Math.max(0, entry.getCompressedSize())));
+                            any = true;
+                        }
+                    }
+                    finally
+                    {
+                        if(!any)
+                            zip.close();
+                    }
+                }
+                else
+                    sources.add(new InputSource(path, false, null, null, Files.size(path)));
+            }
+        }
+        catch (IOException e)
+        {
+            close(sources);
+            throw e;
+        }
+        return sources;
+    }
+
+    static void close(List<InputSource> sources) throws IOException
+    {
+        IdentityHashMap<ZipFile, Boolean> closed = new IdentityHashMap<>();
+        for(InputSource source : sources)
+        {
+            if(source.zip != null && closed.put(source.zip, true) == null)
+                source.zip.close();
+        }
+    }
+
+    // Lines of one input, along with how far into it reading has gotten
+    static class Reader implements Closeable
+    {
+        final LineReader lines;
+        private final Closeable underlying;
+        private final long skipped;
+        private final CountingInputStream stored; // null if what's been read is what's stored
+        private final long stored_size;
+        private final long decoded_size;
+
+        private Reader(LineReader lines, Closeable underlying, long skipped, CountingInputStream stored, long stored_size, long decoded_size)
+        {
+            this.lines = lines;
+            this.underlying = underlying;
+            this.skipped = skipped;
+            this.stored = stored;
+            this.stored_size = stored_size;
+            this.decoded_size = decoded_size;
+        }
+
+        // decoded bytes behind every line read so far, which a checkpoint can pick back up from
+        long position()
+        {
+            return skipped + lines.position();
+        }
+
+        // stored bytes behind every line read so far, for progress
+        long consumed()
+        {
+            if(stored != null)
+                return stored.count;
+            if(decoded_size > 0)
+                return (long)(position()/(double)decoded_size*stored_size);
+            return position();
+        }
+
+        public void close() throws IOException
+        {
+            if(underlying != null)
+                underlying.close();
+        }
+    }
+
+    private static class CountingInputStream extends FilterInputStream
+    {
+        long count = 0;
+        CountingInputStream(InputStream in)
+        {
+            super(in);
+        }
+        @Override
+        public int read() throws IOException
+        {
+            int b = super.read();
+            if(b >= 0) count++;
+            return b;
+        }
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException
+        {
+            int n = super.read(b, off, len);
+            if(n > 0) count += n;
+            return n;
+        }
+        @Override
+        public long skip(long n) throws IOException
+        {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+
+    // everything after the first skip bytes of the decoded text
+    Reader open(long skip, boolean strip_furigana) throws IOException
+    {
+        if(!compressed())
+        {
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+            channel.position(skip);
+            return new Reader(new LineReader(Channels.newInputStream(channel), strip_furigana), channel, skip, null, size, -1);
+        }
+        CountingInputStream stored = null;
+        InputStream in;
+        if(gzip)
+        {
+            stored = new CountingInputStream(Files.newInputStream(path));
+            in = new GZIPInputStream(stored, 1<<16);
+        }
+        else
+            in = zip.getInputStream(entry);
+        try
+        {
+            for(long left = skip; left > 0; )
+            {
+                long n = in.skip(left);
+                if(n <= 0)
+                {
+                    if(in.read() < 0)
+                        throw new EOFException("Input is shorter than the checkpoint says: " + name());
+                    n = 1;
+                }
+                left -= n;
+            }
+        }
+        catch (IOException e)
+        {
+            in.close();
+            throw e;
+        }
+        return new Reader(new LineReader(in, strip_furigana), in, skip, stored, size, entry == null ? -1 : entry.getSize());
+    }
+
+    // a piece of a plain file mapped into memory
+    Reader map(long start, long length, boolean strip_furigana) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
+        {
+            LineReader lines = new LineReader(channel.map(FileChannel.MapMode.READ_ONLY, start, length), strip_furigana);
+            return new Reader(lines, null, 0, null, length, -1);
+        }
+    }
+}
@@ -0,0 +1,141 @@
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/*
+ * Licensed under a public domain‐like license. See Main.java for license text.
+ */
+
+// A custom flight recorder event type, made at runtime with jdk.jfr.EventFactory. jdk.jfr can't be compiled against
+// with --release 8 and isn't in every java 8 runtime either, so everything about it is looked up reflectively. If
+// any of it is missing, events simply don't get recorded. Fields whose name ends in Time are nanosecond timespans.
+class JfrEvent
+{
+    private static Method new_event, set, begin, commit;
+    private static Method is_initialized, get_flight_recorder, get_recordings, get_state;
+    private static Constructor<?> annotation_element, value_descriptor;
+    private static Class<?> name_type, label_type, category_type, timespan_type;
+    private static boolean available;
+    static
+    {
+        try
+        {
+            Class<?> event = Class.forName("jdk.jfr.Event");
+            Class<?> factory = Class.forName("jdk.jfr.EventFactory");
+            Class<?> annotation = Class.forName("jdk.jfr.AnnotationElement");
+            Class<?> value = Class.forName("jdk.jfr.ValueDescriptor");
+            Class<?> recorder = Class.forName("jdk.jfr.FlightRecorder");
+            new_event = factory.getMethod("newEvent");
+            set = event.getMethod("set", int.class, Object.class);
+            begin = event.getMethod("begin");
+            commit = event.getMethod("commit");
+            is_initialized = recorder.getMethod("isInitialized");
+            get_flight_recorder = recorder.getMethod("getFlightRecorder");
+            get_recordings = recorder.getMethod("getRecordings");
+            get_state = Class.forName("jdk.jfr.Recording").getMethod("getState");
+            annotation_element = annotation.getConstructor(Class.class, Object.class);
+            value_descriptor = value.getConstructor(Class.class, String.class, List.class);
+            name_type = Class.forName("jdk.jfr.Name");
+            label_type = Class.forName("jdk.jfr.Label");
+            category_type = Class.forName("jdk.jfr.Category");
+            timespan_type = Class.forName("jdk.jfr.Timespan");
+            available = true;
+        }
+        catch (ReflectiveOperationException|LinkageError e)
+        {
+            available = false;
+        }
+    }
+
+    private final Object factory;
+
+    private JfrEvent(Object factory)
+    {
+        this.factory = factory;
+    }
+
+    // null if there's no flight recorder to record it
+    static JfrEvent define(String name, String label, String[] field_names, Class<?>[] field_types)
+    {
+        if(!available)
+            return null;
+        try
+        {
+            ArrayList<Object> annotations = new ArrayList<>();
+            annotations.add(annotation_element.newInstance(name_type, name));
+            annotations.add(annotation_element.newInstance(label_type, label));
+            Object categories = Array.newInstance(String.class, 1);
+            Array.set(categories, 0, "Analyzer");
+            annotations.add(annotation_element.newInstance(category_type, categories));
+            ArrayList<Object> fields = new ArrayList<>();
+            for(int i = 0; i < field_names.length; i++)
+            {
+                List<Object> field_annotations = Collections.emptyList();
+                if(field_names[i].endsWith("Time"))
+                    field_annotations = Collections.singletonList(annotation_element.newInstance(timespan_type, "NANOSECONDS"));
+                fields.add(value_descriptor.newInstance(field_types[i], field_names[i], field_annotations));
+            }
+            Method create = Class.forName("jdk.jfr.EventFactory").getMethod("create", List.class, List.class);
+            return new JfrEvent(create.invoke(null, annotations, fields));
+        }
+        catch (ReflectiveOperationException|RuntimeException|LinkageError e)
+        {
+            return null;
+        }
+    }
+
+    // whether some flight recording is running right now, without starting up the recorder if there's none
+    static boolean recording()
+    {
+        if(!available)
+            return false;
+        try
+        {
+            if(!(Boolean)is_initialized.invoke(null))
+                return false;
+            for(Object recording : (List<?>)get_recordings.invoke(get_flight_recorder.invoke(null)))
+                if(get_state.invoke(recording).toString().equals("RUNNING"))
+                    return true;
+            return false;
+        }
+        catch (ReflectiveOperationException|RuntimeException e)
+        {
+            return false;
+        }
+    }
+
+    // a new event of this type with its duration starting now, or null if it couldn't be made
+    Object begin()
+    {
+        try
+        {
+            Object event = new_event.invoke(factory);
+            begin.invoke(event);
+            return event;
+        }
+        catch (ReflectiveOperationException|RuntimeException e)
+        {
+            return null;
+        }
+    }
+
+    // ends the event's duration and records it with these field values, in the order the fields were defined in
+    static void commit(Object event, Object... values)
+    {
+        if(event == null)
+            return;
+        try
+        {
+            for(int i = 0; i < values.length; i++)
+                set.invoke(event, i, values[i]);
+            commit.invoke(event);
+        }
+        catch (ReflectiveOperationException|RuntimeException e)
+        {
+            // the recording goes on without it
+        }
+    }
+}
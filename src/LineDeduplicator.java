@@ -0,0 +1,255 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+
+/*
+ * Licensed under a public domain‐like license. See Main.java for license text.
+ */
+
+// Remembers the lines -m has already seen by a 128-bit fingerprint (MurmurHash3 over the line's chars) instead of
+// keeping the whole line around. Fingerprints go into a flat long[] open addressing table, or, if some lines being
+// dropped by mistake is acceptable, into a scalable Bloom filter that keeps adding bigger and stricter filters as it
+// fills up so the overall false positive rate stays below the given one.
+class LineDeduplicator
+{
+    private final double false_positive_rate;
+    private long dropped = 0;
+
+    // fingerprint of the last line, set by fingerprint()
+    private long h1;
+    private long h2;
+
+    // exact mode: pairs of longs, both 0 if empty
+    private long[] table;
+    private int size = 0;
+
+    // bloom filter mode: one bit array per filter, each with its own number of hashes and capacity
+    private static final long first_capacity = 1<<20;
+    private final ArrayList<long[]> filters = new ArrayList<>();
+    private final ArrayList<Integer> filter_hashes = new ArrayList<>();
+    private long capacity = 0;
+    private long in_last_filter = 0;
+
+    // 0 for exact fingerprints
+    LineDeduplicator(double false_positive_rate)
+    {
+        this.false_positive_rate = false_positive_rate;
+        if(false_positive_rate <= 0)
+            table = new long[2*1024];
+    }
+
+    // lines that add() reported as already seen
+    long dropped()
+    {
+        return dropped;
+    }
+
+    // everything seen so far, for checkpoints
+    void write(DataOutputStream out) throws IOException
+    {
+        out.writeDouble(false_positive_rate);
+        out.writeLong(dropped);
+        if(false_positive_rate <= 0)
+        {
+            out.writeInt(size);
+            write_longs(out, table);
+            return;
+        }
+        out.writeLong(capacity);
+        out.writeLong(in_last_filter);
+        out.writeInt(filters.size());
+        for(int f = 0; f < filters.size(); f++)
+        {
+            out.writeInt(filter_hashes.get(f));
+            write_longs(out, filters.get(f));
+        }
+    }
+
+    static LineDeduplicator read(DataInputStream in) throws IOException
+    {
+        LineDeduplicator seen = new LineDeduplicator(in.readDouble());
+        seen.dropped = in.readLong();
+        if(seen.false_positive_rate <= 0)
+        {
+            seen.size = in.readInt();
+            seen.table = read_longs(in);
+            if(seen.table.length < 2 || Integer.bitCount(seen.table.length) != 1)
+                throw new IOException("Corrupt snapshot");
+            return seen;
+        }
+        seen.capacity = in.readLong();
+        seen.in_last_filter = in.readLong();
+        int count = in.readInt();
+        for(int f = 0; f < count; f++)
+        {
+            seen.filter_hashes.add(in.readInt());
+            long[] bits = read_longs(in);
+            if(Integer.bitCount(bits.length) != 1)
+                throw new IOException("Corrupt snapshot");
+            seen.filters.add(bits);
+        }
+        return seen;
+    }
+
+    private static void write_longs(DataOutputStream out, long[] values) throws IOException
+    {
+        out.writeInt(values.length);
+        for(long value : values)
+            out.writeLong(value);
+    }
+
+    private static long[] read_longs(DataInputStream in) throws IOException
+    {
+        int length = in.readInt();
+        if(length < 0)
+            throw new IOException("Corrupt snapshot");
+        long[] values = new long[length];
+        for(int i = 0; i < length; i++)
+            values[i] = in.readLong();
+        return values;
+    }
+
+    // true if the line is new, false if it was seen before and should be dropped
+    boolean add(String line)
+    {
+        fingerprint(line);
+        boolean added = false_positive_rate > 0 ? bloom_add() : table_add();
+        if(!added)
+            dropped++;
+        return added;
+    }
+
+    private boolean table_add()
+    {
+        if(h1 == 0 && h2 == 0)
+            h2 = 1;
+        int mask = table.length/2 - 1;
+        int i = (int)h1 & mask;
+        while(table[i*2] != 0 || table[i*2+1] != 0)
+        {
+            if(table[i*2] == h1 && table[i*2+1] == h2)
+                return false;
+            i = (i + 1) & mask;
+        }
+        table[i*2] = h1;
+        table[i*2+1] = h2;
+        size++;
+
+        if(size*4L > table.length/2*3L)
+        {
+            long[] old = table;
+            table = new long[old.length*2];
+            mask = table.length/2 - 1;
+            for(int j = 0; j < old.length; j += 2)
+            {
+                if(old[j] == 0 && old[j+1] == 0) continue;
+                int k = (int)old[j] & mask;
+                while(table[k*2] != 0 || table[k*2+1] != 0)
+                    k = (k + 1) & mask;
+                table[k*2] = old[j];
+                table[k*2+1] = old[j+1];
+            }
+        }
+        return true;
+    }
+
+    private boolean bloom_add()
+    {
+        long step = h2 | 1;
+        for(int f = 0; f < filters.size(); f++)
+        {
+            long[] bits = filters.get(f);
+            long mask = bits.length*64L - 1;
+            int hashes = filter_hashes.get(f);
+            boolean all = true;
+            for(int j = 0; j < hashes && all; j++)
+            {
+                long bit = (h1 + j*step) & mask;
+                all = (bits[(int)(bit >>> 6)] & (1L << bit)) != 0;
+            }
+            if(all)
+                return false;
+        }
+
+        if(filters.isEmpty() || in_last_filter >= capacity)
+        {
+            // each filter gets twice the room and half the false positive rate of the one before,
+            // so all of them together stay below false_positive_rate
+            capacity = filters.isEmpty() ? first_capacity : capacity*2;
+            double rate = false_positive_rate / (2 << filters.size());
+            double ln2 = Math.log(2);
+            long bits = (long)Math.ceil(capacity * -Math.log(rate) / (ln2*ln2));
+            long words = Long.highestOneBit(Math.max(1, (bits + 63)/64 - 1)) << 1;
+            filters.add(new long[(int)Math.min(words, 1<<30)]);
+            filter_hashes.add(Math.max(1, (int)Math.round(-Math.log(rate)/ln2)));
+            in_last_filter = 0;
+        }
+        long[] bits = filters.get(filters.size() - 1);
+        long mask = bits.length*64L - 1;
+        int hashes = filter_hashes.get(filters.size() - 1);
+        for(int j = 0; j < hashes; j++)
+        {
+            long bit = (h1 + j*step) & mask;
+            bits[(int)(bit >>> 6)] |= 1L << bit;
+        }
+        in_last_filter++;
+        return true;
+    }
+
+    private static final long c1 = 0x87c37b91114253d5L;
+    private static final long c2 = 0x4cf5ad432745937fL;
+
+    private static long fmix(long k)
+    {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+
+    // MurmurHash3 x64 128 over the utf-16 code units, eight per block
+    private void fingerprint(String s)
+    {
+        long h1 = 0;
+        long h2 = 0;
+        int length = s.length();
+        int i = 0;
+        for(; i + 8 <= length; i += 8)
+        {
+            long k1 = s.charAt(i) | (long)s.charAt(i+1) << 16 | (long)s.charAt(i+2) << 32 | (long)s.charAt(i+3) << 48;
+            long k2 = s.charAt(i+4) | (long)s.charAt(i+5) << 16 | (long)s.charAt(i+6) << 32 | (long)s.charAt(i+7) << 48;
+
+            k1 *= c1; k1 = Long.rotateLeft(k1, 31); k1 *= c2; h1 ^= k1;
+            h1 = Long.rotateLeft(h1, 27); h1 += h2; h1 = h1*5 + 0x52dce729;
+            k2 *= c2; k2 = Long.rotateLeft(k2, 33); k2 *= c1; h2 ^= k2;
+            h2 = Long.rotateLeft(h2, 31); h2 += h1; h2 = h2*5 + 0x38495ab5;
+        }
+        if(i < length)
+        {
+            long k1 = 0;
+            long k2 = 0;
+            for(int j = 0; i + j < length; j++)
+            {
+                if(j < 4)
+                    k1 |= (long)s.charAt(i + j) << (16*j);
+                else
+                    k2 |= (long)s.charAt(i + j) << (16*(j - 4));
+            }
+            k2 *= c2; k2 = Long.rotateLeft(k2, 33); k2 *= c1; h2 ^= k2;
+            k1 *= c1; k1 = Long.rotateLeft(k1, 31); k1 *= c2; h1 ^= k1;
+        }
+        h1 ^= length*2L;
+        h2 ^= length*2L;
+        h1 += h2;
+        h2 += h1;
+        h1 = fmix(h1);
+        h2 = fmix(h2);
+        h1 += h2;
+        h2 += h1;
+        this.h1 = h1;
+        this.h2 = h2;
+    }
+}
@@ -0,0 +1,161 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/*
+ * Licensed under a public domain‐like license. See Main.java for license text.
+ */
+
+// Reads trimmed lines out of a utf-8 stream, decoding it in large blocks instead of one char at a time.
+// With strip_furigana, 《》 and everything between them and stray 〈 and 〉 are dropped as the text is decoded.
+class LineReader implements Closeable
+{
+    private static final int buffer_size = 1<<16;
+
+    private final InputStream in;
+    private final boolean strip_furigana;
+    // bad input still turns into U+FFFD like it would with REPLACE, but this way it's known how many bytes each one ate
+    private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+        .onMalformedInput(CodingErrorAction.REPORT)
+        .onUnmappableCharacter(CodingErrorAction.REPORT);
+    private final ByteBuffer bytes;
+    private final CharBuffer chars = CharBuffer.allocate(buffer_size);
+    private final StringBuilder line = new StringBuilder();
+    private boolean end_of_stream = false;
+    private boolean flushed = false;
+    // bytes behind every char handed out so far
+    private long consumed = 0;
+    // where in chars the replacement chars for bad input went, and how many bytes each of them stands for
+    private int[] replaced_at = new int[16];
+    private int[] replaced_length = new int[16];
+    private int replaced_count = 0;
+    private int replaced_next = 0;
+
+    LineReader(InputStream in, boolean strip_furigana)
+    {
+        this.in = in;
+        this.strip_furigana = strip_furigana;
+        bytes = ByteBuffer.allocate(buffer_size);
+        bytes.flip();
+        chars.flip();
+    }
+
+    // decodes straight out of the given buffer, e.g. a mapped chunk of a file
+    LineReader(ByteBuffer bytes, boolean strip_furigana)
+    {
+        this.in = null;
+        this.strip_furigana = strip_furigana;
+        this.bytes = bytes;
+        end_of_stream = true;
+        chars.flip();
+    }
+
+    // Bytes of the underlying stream behind everything read so far. Right after readLine() this is exactly where
+    // the next line starts, so a new reader started there picks up with the same lines.
+    long position()
+    {
+        return consumed;
+    }
+
+    // next char of the decoded text, or -1 at the end of the stream
+    private int read() throws IOException
+    {
+        while(!chars.hasRemaining())
+        {
+            if(flushed) return -1;
+            chars.clear();
+            replaced_count = 0;
+            replaced_next = 0;
+            if(!end_of_stream)
+            {
+                bytes.compact();
+                int n = in.read(bytes.array(), bytes.position(), bytes.remaining());
+                if(n < 0)
+                    end_of_stream = true;
+                else
+                    bytes.position(bytes.position() + n);
+                bytes.flip();
+            }
+            CoderResult result = decoder.decode(bytes, chars, end_of_stream);
+            while(result.isError() && chars.hasRemaining())
+            {
+                if(replaced_count == replaced_at.length)
+                {
+                    replaced_at = Arrays.copyOf(replaced_at, replaced_count*2);
+                    replaced_length = Arrays.copyOf(replaced_length, replaced_count*2);
+                }
+                replaced_at[replaced_count] = chars.position();
+                replaced_length[replaced_count++] = result.length();
+                chars.put('\uFFFD');
+                bytes.position(bytes.position() + result.length());
+                result = decoder.decode(bytes, chars, end_of_stream);
+            }
+            if(end_of_stream && !bytes.hasRemaining())
+            {
+                decoder.flush(chars);
+                flushed = true;
+            }
+            chars.flip();
+        }
+        int at = chars.position();
+        char c = chars.get();
+        if(replaced_next < replaced_count && replaced_at[replaced_next] == at)
+            consumed += replaced_length[replaced_next++];
+        else
+            consumed += c < 0x80 ? 1 : c < 0x800 || Character.isSurrogate(c) ? 2 : 3;
+        return c;
+    }
+
+    // same semantics as the old char-at-a-time reader: returns null once nothing is left,
+    // and a 《》 span eats any line breaks inside of it
+    String readLine() throws IOException
+    {
+        line.setLength(0);
+        boolean didanything = false;
+        while (true)
+        {
+            int c = read();
+            if(strip_furigana && c == 0x300A) // 《
+            {
+                while(true)
+                {
+                    c = read();
+                    if(c < 0) break;
+                    if(c == 0x300B) // 》
+                    {
+                        c = read();
+                        break;
+                    }
+                }
+            }
+            if(strip_furigana && (c == 0x3008 || c == 0x3009)) continue; //〈〉
+            if(c < 0) break;
+            line.append((char)c);
+            didanything = true;
+            if(c == '\n')
+                break;
+        }
+        if(!didanything)
+            return null;
+
+        // String.trim() without the intermediate copy
+        int start = 0;
+        int end = line.length();
+        while(start < end && line.charAt(start) <= ' ') start++;
+        while(end > start && line.charAt(end-1) <= ' ') end--;
+        return line.substring(start, end);
+    }
+
+    public void close() throws IOException
+    {
+        if(in != null)
+            in.close();
+    }
+}
@@ -0,0 +1,272 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Licensed under a public domain‐like license. See Main.java for license text.
+ */
+
+// Where a run's time goes and what it counted. The run as a whole goes from one stage to the next (loading,
+// analyzing, merging, writing), and every thread that reads or analyzes lines counts them, their tokens and why
+// tokens got filtered into counters of its own, so nothing gets shared per line. Those only get added up for a
+// report, which goes into an analyzer.Metrics flight recorder event and the --metrics json file, every so often
+// and once at the end. Timing filtering and counting takes clock reads per token, so the time spent per stage is
+// only measured if someone's looking: with --metrics, or while a flight recording is running.
+class RunMetrics
+{
+    static final int reading = 0, tokenizing = 1, filtering = 2, aggregating = 3;
+    private static final String[] thread_stages = {"reading", "tokenizing", "filtering", "aggregating"};
+    // why a token got filtered, see Analyzer.filter_reason
+    static final int kept = 0, by_dictionary = 1, by_punctuation = 2, by_kanji_only = 3, by_user_filter = 4;
+    private static final String[] filter_reasons = {"kept", "dictionary", "punctuation", "kanji_only", "user_filter"};
+
+    private static final JfrEvent stage_event = JfrEvent.define("analyzer.Stage", "Analyzer Stage", new String[]{"stage"}, new Class<?>[]{String.class});
+    private static final String[] metrics_fields = {"elapsedTime", "done", "lines", "tokens", "linesPerSecond", "tokensPerSecond",
+        "keptTokens", "filteredDictionary", "filteredPunctuation", "filteredKanjiOnly", "filteredUserFilter", "dedupHits", "distinctTerms",
+        "readingTime", "tokenizingTime", "filteringTime", "aggregatingTime"};
+    private static final JfrEvent metrics_event = JfrEvent.define("analyzer.Metrics", "Analyzer Metrics", metrics_fields, new Class<?>[]{long.class,
+        boolean.class, long.class, long.class, double.class, double.class, long.class, long.class, long.class, long.class, long.class,
+        long.class, long.class, long.class, long.class, long.class, long.class});
+
+    // what one thread counted. Other threads only read these for reports, which are allowed to be a little behind.
+    static class Counters
+    {
+        private final boolean timed;
+        private long lap_start;
+        final long[] stage_time = new long[thread_stages.length];
+        long lines = 0;
+        long tokens = 0;
+        final long[] tokens_by_reason = new long[filter_reasons.length];
+
+        private Counters(boolean timed)
+        {
+            this.timed = timed;
+        }
+
+        void start()
+        {
+            if(timed)
+                lap_start = System.nanoTime();
+        }
+
+        // the time since start() or the last lap went to this stage
+        void lap(int stage)
+        {
+            if(timed)
+            {
+                long now = System.nanoTime();
+                stage_time[stage] += now - lap_start;
+                lap_start = now;
+            }
+        }
+    }
+
+    final boolean timed;
+    private final long start = System.nanoTime();
+    private final ArrayList<Counters> all_counters = new ArrayList<>();
+    private final ThreadLocal<Counters> counters = ThreadLocal.withInitial(this::new_counters);
+    private final LinkedHashMap<String, Long> stage_time = new LinkedHashMap<>();
+    private String stage = null;
+    private long stage_start;
+    private Object stage_recording;
+    // set once they're known
+    volatile LineDeduplicator seen_lines = null;
+    volatile long distinct_terms = -1;
+    private boolean done = false;
+    private boolean finished = false;
+    private Path file = null;
+    private ScheduledExecutorService reporter = null;
+
+    RunMetrics(boolean timed)
+    {
+        this.timed = timed;
+    }
+
+    // times stages if there's a file to write or a flight recording to record to
+    static RunMetrics start(String file, int interval)
+    {
+        RunMetrics metrics = new RunMetrics(file != null || JfrEvent.recording());
+        if(metrics.timed)
+        {
+            metrics.file = file != null ? Paths.get(file) : null;
+            metrics.reporter = Executors.newSingleThreadScheduledExecutor((task) ->
+            {
+                Thread thread = new Thread(task, "metrics");
+                thread.setDaemon(true);
+                return thread;
+            });
+            long every = Math.max(1, interval);
+            metrics.reporter.scheduleAtFixedRate(metrics::report, every, every, TimeUnit.SECONDS);
+        }
+        return metrics;
+    }
+
+    private Counters new_counters()
+    {
+        Counters added = new Counters(timed);
+        synchronized(all_counters)
+        {
+            all_counters.add(added);
+        }
+        return added;
+    }
+
+    // the calling thread's own counters
+    Counters counters()
+    {
+        return counters.get();
+    }
+
+    // lines read so far, which can be a little behind
+    long lines()
+    {
+        long lines = 0;
+        synchronized(all_counters)
+        {
+            for(Counters counted : all_counters)
+                lines += counted.lines;
+        }
+        return lines;
+    }
+
+    // ends the stage the run was in and moves on to this one
+    synchronized void enter(String next)
+    {
+        long now = System.nanoTime();
+        if(stage != null)
+        {
+            stage_time.merge(stage, now - stage_start, Long::sum);
+            JfrEvent.commit(stage_recording, stage);
+        }
+        stage = next;
+        stage_start = now;
+        stage_recording = next != null && stage_event != null ? stage_event.begin() : null;
+    }
+
+    // stops reporting and writes the last report, done if the run got to the end
+    void finish(boolean done)
+    {
+        synchronized(this)
+        {
+            if(finished)
+                return;
+            finished = true;
+            this.done = done;
+        }
+        if(reporter != null)
+        {
+            reporter.shutdownNow();
+            try
+            {
+                reporter.awaitTermination(10, TimeUnit.SECONDS);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+        enter(null);
+        if(timed)
+            report();
+    }
+
+    private synchronized void report()
+    {
+        long elapsed = System.nanoTime() - start;
+        long lines = 0;
+        long tokens = 0;
+        long[] by_reason = new long[filter_reasons.length];
+        long[] thread_time = new long[thread_stages.length];
+        synchronized(all_counters)
+        {
+            for(Counters counted : all_counters)
+            {
+                lines += counted.lines;
+                tokens += counted.tokens;
+                for(int i = 0; i < by_reason.length; i++)
+                    by_reason[i] += counted.tokens_by_reason[i];
+                for(int i = 0; i < thread_time.length; i++)
+                    thread_time[i] += counted.stage_time[i];
+            }
+        }
+        LinkedHashMap<String, Long> stages = new LinkedHashMap<>(stage_time);
+        if(stage != null)
+            stages.merge(stage, System.nanoTime() - stage_start, Long::sum);
+        LineDeduplicator dedup = seen_lines;
+        long dedup_hits = dedup != null ? dedup.dropped() : 0;
+        double seconds = elapsed/1e9;
+        double lines_per_second = seconds > 0 ? lines/seconds : 0;
+        double tokens_per_second = seconds > 0 ? tokens/seconds : 0;
+
+        if(metrics_event != null)
+            JfrEvent.commit(metrics_event.begin(), elapsed, done, lines, tokens, lines_per_second, tokens_per_second,
+                by_reason[kept], by_reason[by_dictionary], by_reason[by_punctuation], by_reason[by_kanji_only], by_reason[by_user_filter],
+                dedup_hits, distinct_terms, thread_time[reading], thread_time[tokenizing], thread_time[filtering], thread_time[aggregating]);
+        if(file == null)
+            return;
+
+        StringBuilder json = new StringBuilder();
+        json.append("{\n");
+        json.append("  \"done\": ").append(done).append(",\n");
+        json.append("  \"elapsed_seconds\": ").append(decimal(seconds)).append(",\n");
+        json.append("  \"lines\": ").append(lines).append(",\n");
+        json.append("  \"tokens\": ").append(tokens).append(",\n");
+        json.append("  \"lines_per_second\": ").append(decimal(lines_per_second)).append(",\n");
+        json.append("  \"tokens_per_second\": ").append(decimal(tokens_per_second)).append(",\n");
+        json.append("  \"tokens_by_reason\": {");
+        for(int i = 0; i < filter_reasons.length; i++)
+            json.append(i > 0 ? ", " : "").append('"').append(filter_reasons[i]).append("\": ").append(by_reason[i]);
+        json.append("},\n");
+        json.append("  \"filtered_ratio\": {");
+        for(int i = 1; i < filter_reasons.length; i++)
+            json.append(i > 1 ? ", " : "").append('"').append(filter_reasons[i]).append("\": ").append(decimal(tokens > 0 ? by_reason[i]/(double)tokens : 0));
+        json.append("},\n");
+        json.append("  \"dedup_hits\": ").append(dedup_hits).append(",\n");
+        json.append("  \"distinct_terms\": ").append(distinct_terms >= 0 ? Long.toString(distinct_terms) : "null").append(",\n");
+        // time the run spent in each stage, one after another
+        json.append("  \"stage_seconds\": {");
+        boolean first = true;
+        for(Map.Entry<String, Long> entry : stages.entrySet())
+        {
+            json.append(first ? "" : ", ").append('"').append(entry.getKey()).append("\": ").append(decimal(entry.getValue()/1e9));
+            first = false;
+        }
+        json.append("},\n");
+        // time spent on each line, added up over all threads
+        json.append("  \"thread_seconds\": {");
+        for(int i = 0; i < thread_stages.length; i++)
+            json.append(i > 0 ? ", " : "").append('"').append(thread_stages[i]).append("\": ").append(decimal(thread_time[i]/1e9));
+        json.append("}\n");
+        json.append("}\n");
+
+        Path temp = Paths.get(file.toString() + ".tmp");
+        try
+        {
+            try (BufferedWriter out = Files.newBufferedWriter(temp, StandardCharsets.UTF_8))
+            {
+                out.write(json.toString());
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (IOException e)
+        {
+            // metrics are nice to have, the run goes on without them
+        }
+    }
+
+    private static String decimal(double value)
+    {
+        return String.format(Locale.ROOT, "%.3f", value);
+    }
+}
@@ -0,0 +1,154 @@
+import com.atilika.kuromoji.unidic.kanaaccent.Token;
+
+/*
+ * Licensed under a public domain‐like license. See Main.java for license text.
+ */
+
+// The feature fields of one token, each fetched from kuromoji at most once. Every Token getter goes back to the
+// dictionary's feature data, and filtering, identities and furigana between them ask for some fields several times.
+// Fields only get fetched the first time something asks for them, so whatever the filters and the respelling mode
+// don't read never gets fetched at all. One of these gets reused for token after token on a thread, see of().
+class TokenFields
+{
+    private static final int written_base_form_field = 1, form_base_field = 2, pronunciation_base_form_field = 4,
+        accent_type_field = 8, language_type_field = 16, conjugation_type_field = 32, lemma_field = 64,
+        lemma_reading_form_field = 128, kana_field = 256, pos1_field = 512, pos2_field = 1024, pos3_field = 2048,
+        pos4_field = 4096;
+
+    private static final ThreadLocal<TokenFields> per_thread = ThreadLocal.withInitial(TokenFields::new);
+
+    Token token;
+    private int fetched = 0; // which fields hold token's
+    private String written_base_form;
+    private String form_base;
+    private String pronunciation_base_form;
+    private String accent_type;
+    private String language_type;
+    private String conjugation_type;
+    private String lemma;
+    private String lemma_reading_form;
+    private String kana;
+    private String pos1;
+    private String pos2;
+    private String pos3;
+    private String pos4;
+
+    // this thread's record, emptied and pointed at token. Only for the token being counted: anything that looks at
+    // other tokens in the meantime needs a record of its own, or it changes what the caller's record points at.
+    static TokenFields of(Token token)
+    {
+        return per_thread.get().reset(token);
+    }
+
+    TokenFields reset(Token token)
+    {
+        this.token = token;
+        fetched = 0;
+        return this;
+    }
+
+    private boolean fetch(int field)
+    {
+        if((fetched & field) != 0)
+            return false;
+        fetched |= field;
+        return true;
+    }
+
+    // kept on the token itself, not in the dictionary
+    String surface()
+    {
+        return token.getSurface();
+    }
+
+    String written_base_form()
+    {
+        if(fetch(written_base_form_field))
+            written_base_form = token.getWrittenBaseForm();
+        return written_base_form;
+    }
+
+    String form_base()
+    {
+        if(fetch(form_base_field))
+            form_base = token.getFormBase();
+        return form_base;
+    }
+
+    String pronunciation_base_form()
+    {
+        if(fetch(pronunciation_base_form_field))
+            pronunciation_base_form = token.getPronunciationBaseForm();
+        return pronunciation_base_form;
+    }
+
+    String accent_type()
+    {
+        if(fetch(accent_type_field))
+            accent_type = token.getAccentType();
+        return accent_type;
+    }
+
+    String language_type()
+    {
+        if(fetch(language_type_field))
+            language_type = token.getLanguageType();
+        return language_type;
+    }
+
+    String conjugation_type()
+    {
+        if(fetch(conjugation_type_field))
+            conjugation_type = token.getConjugationType();
+        return conjugation_type;
+    }
+
+    String lemma()
+    {
+        if(fetch(lemma_field))
+            lemma = token.getLemma();
+        return lemma;
+    }
+
+    String lemma_reading_form()
+    {
+        if(fetch(lemma_reading_form_field))
+            lemma_reading_form = token.getLemmaReadingForm();
+        return lemma_reading_form;
+    }
+
+    String kana()
+    {
+        if(fetch(kana_field))
+            kana = token.getKana();
+        return kana;
+    }
+
+    String pos1()
+    {
+        if(fetch(pos1_field))
+            pos1 = token.getPartOfSpeechLevel1();
+        return pos1;
+    }
+
+    String pos2()
+    {
+        if(fetch(pos2_field))
+            pos2 = token.getPartOfSpeechLevel2();
+        return pos2;
+    }
+
+    String pos3()
+    {
+        if(fetch(pos3_field))
+            pos3 = token.getPartOfSpeechLevel3();
+        return pos3;
+    }
+
+    String pos4()
+    {
+        if(fetch(pos4_field))
+            pos4 = token.getPartOfSpeechLevel4();
+        return pos4;
+    }
+}
@@ -0,0 +1,120 @@
+import java.io.IOException;
+import java.io.OutputStream;
+
+/*
+ * Licensed under a public domain‐like license. See Main.java for license text.
+ */
+
+// Writes tab separated rows to a utf-8 stream, encoding every field straight into one large buffer that gets reused
+// for the whole output, so a row never gets put together as a string of its own first. Unlike Main.println, errors
+// writing to the stream get thrown instead of dropped.
+class TsvWriter
+{
+    private static final int buffer_size = 1<<16;
+
+    private final OutputStream out;
+    private final byte[] buffer = new byte[buffer_size];
+    private int used = 0;
+
+    TsvWriter(OutputStream out)
+    {
+        this.out = out;
+    }
+
+    // makes sure there's room for this many more bytes
+    private void reserve(int bytes) throws IOException
+    {
+        if(used + bytes > buffer.length)
+        {
+            out.write(buffer, 0, used);
+            used = 0;
+        }
+    }
+
+    // unpaired surrogates turn into '?' like they would with an OutputStreamWriter
+    TsvWriter write(String text) throws IOException
+    {
+        int length = text.length();
+        for(int i = 0; i < length; i++)
+        {
+            char c = text.charAt(i);
+            reserve(4);
+            if(c < 0x80)
+                buffer[used++] = (byte)c;
+            else if(c < 0x800)
+            {
+                buffer[used++] = (byte)(0xC0 | c >> 6);
+                buffer[used++] = (byte)(0x80 | c & 0x3F);
+            }
+            else if(!Character.isSurrogate(c))
+            {
+                buffer[used++] = (byte)(0xE0 | c >> 12);
+                buffer[used++] = (byte)(0x80 | c >> 6 & 0x3F);
+                buffer[used++] = (byte)(0x80 | c & 0x3F);
+            }
+            else if(Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(text.charAt(i + 1)))
+            {
+                int code_point = Character.toCodePoint(c, text.charAt(++i));
+                buffer[used++] = (byte)(0xF0 | code_point >> 18);
+                buffer[used++] = (byte)(0x80 | code_point >> 12 & 0x3F);
+                buffer[used++] = (byte)(0x80 | code_point >> 6 & 0x3F);
+                buffer[used++] = (byte)(0x80 | code_point & 0x3F);
+            }
+            else
+                buffer[used++] = '?';
+        }
+        return this;
+    }
+
+    TsvWriter write(long number) throws IOException
+    {
+        reserve(20);
+        if(number < 0)
+        {
+            buffer[used++] = '-';
+            if(number == Long.MIN_VALUE)
+            {
+                // the one negative number without a positive counterpart
+                write("9223372036854775808");
+                return this;
+            }
+            number = -number;
+        }
+        int start = used;
+        do
+        {
+            buffer[used++] = (byte)('0' + number % 10);
+            number /= 10;
+        }
+        while(number != 0);
+        // digits went in backwards
+        for(int i = start, j = used - 1; i < j; i++, j--)
+        {
+            byte digit = buffer[i];
+            buffer[i] = buffer[j];
+            buffer[j] = digit;
+        }
+        return this;
+    }
+
+    TsvWriter tab() throws IOException
+    {
+        reserve(1);
+        buffer[used++] = '\t';
+        return this;
+    }
+
+    void end_row() throws IOException
+    {
+        reserve(1);
+        buffer[used++] = '\n';
+    }
+
+    // writes out whatever's in the buffer and flushes the stream
+    void flush() throws IOException
+    {
+        out.write(buffer, 0, used);
+        used = 0;
+        out.flush();
+    }
+}
@@ -1,31 +1,24 @@
-import com.atilika.kuromoji.unidic.kanaaccent.Token;
-
 /*
  * Licensed under a public domain‐like license. See Main.java for license text.
  */
 
 class Utils {
-    // FIXME: Check katakana unicode range
-    static char toHiragana(char c)
-    {
-        return (char) (c - 0x60);
-    }
-
     static String toHiragana(String s)
     {
-        StringBuilder result = new StringBuilder();
+        char[] result = new char[s.length()];
         for (int i = 0; i < s.length(); i++)
-            result.append(toHiragana(s.charAt(i)));
-        return result.toString();
+            result[i] = CharacterClasses.toHiragana(s.charAt(i));
+        return new String(result);
     }
 
-    static String toFurigana(Token token)
+    static String toFurigana(TokenFields token)
     {
         // Add furigana to kanji words only
-        if(token.getSurface().matches("[\\u4e00-\\u9faf]+.*"))
+        String surface = token.surface();
+        if(CharacterClasses.startsWithKanji(surface))
         {
-            String reading = Utils.toHiragana(token.getKana());
-            String surface = token.getSurface();
+            String finalReading = Utils.toHiragana(token.kana());
+            String reading = finalReading;
 
             // 引[きこもり]
             for (int i = reading.length(); i > 0; i--)
@@ -39,12 +32,11 @@ class Utils {
                     break;
             }
 
-            String finalReading = Utils.toHiragana(token.getKana());
             String tail = finalReading.substring(reading.length(), finalReading.length());
 
             return surface + "[" + reading + "]" + tail;
         }
         else
-            return token.getSurface();
+            return surface;
     }
 }
@@ -1,101 +1,750 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.StringJoiner;
+import java.util.function.LongFunction;
+import java.util.function.LongUnaryOperator;
+import java.util.function.Supplier;
 
 /*
  * Licensed under a public domain‐like license. See Main.java for license text.
  */
 
-class Fact
+// Terms are numbered in the order they first show up in and every column is a plain array indexed by that number,
+// so counting an event is one probe into an open addressing index and no allocation.
+// As long as lines are added in input order, a term's number also orders it by the line it first showed up in.
+class miniFrequencyData
 {
-    Fact(Integer count, String id)
+    private int size = 0;
+    private String[] identities = new String[64];
+    private int[] hashes = new int[64];
+    private int[] counts = new int[64];
+    private long[] firsts = new long[64]; // line the term first showed up in
+    private String[] lines = null; // extra fields of the first occurrence, only allocated once there are any
+    // term number + 1 by hash, linear probing, 0 if empty
+    private int[] table = new int[128];
+
+    // spellings (-l/-x) get numbered the same way, and each term keeps a chain of its own in the order they showed up in
+    private int spelling_size = 0;
+    private String[] spelling_names;
+    private int[] spelling_hashes;
+    private int[] spelling_terms;
+    private int[] spelling_counts;
+    private long[] spelling_firsts;
+    private int[] spelling_next; // spelling number + 1, 0 at the end of the chain
+    private int[] first_spellings; // per term, spelling number + 1
+    private int[] last_spellings; // per term, spelling number + 1
+    private int[] spelling_table;
+
+    // With gram_length above 1, runs of that many terms in a row get counted as n-grams too, and those are what gets
+    // output. An n-gram is keyed by the numbers of its terms packed into one long, 64/gram_length bits each, and gets
+    // numbered the same way terms do, so it takes no more room than a term does.
+    final int gram_length;
+    private int gram_size = 0;
+    private long[] gram_keys;
+    private int[] gram_counts;
+    private long[] gram_firsts;
+    private int[] gram_table; // n-gram number + 1 by key, linear probing, 0 if empty
+
+    // once getTopTerms has been asked for them, the most counted terms (n-grams with gram_length above 1), most
+    // counted first
+    private int[] top_terms = null;
+    private int[] top_slots = null; // by term, 1 + where it is in top_terms, 0 if it isn't in there
+    private int top_size = 0;
+
+    // lines of input counted into this table so far, more input gets numbered starting from here
+    long line_count = 0;
+    // per input file, the tables that together hold its own counts, for per-source columns (null if none)
+    ArrayList<ArrayList<miniFrequencyData>> source_tables = null;
+
+    miniFrequencyData()
     {
-        this.count = count;
-        this.id = id;
+        this(1);
     }
-    Integer count;
-    String id;
-}
 
-class miniFrequencyData
-{
-    private HashMap<String, Integer> frequency = new HashMap<>();
-    private HashMap<String, HashMap<String, Integer>> spellings = new HashMap<>();
-    private HashMap<String, Integer> location = new HashMap<>();
-    private HashMap<String, String> line = new HashMap<>();
+    miniFrequencyData(int gram_length)
+    {
+        this.gram_length = gram_length;
+        if(gram_length > 1)
+        {
+            gram_keys = new long[64];
+            gram_counts = new int[64];
+            gram_firsts = new long[64];
+            gram_table = new int[128];
+        }
+    }
+
+    private static int mix(int hash)
+    {
+        hash *= 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
 
-    void addEvent(String id, Integer extra, String extraFields)
+    // term number of identity, or -1
+    private int find(String identity, int hash)
     {
-        String name;
-        String identity;
-        if(Main.pull_out_spellings)
+        int mask = table.length - 1;
+        for(int i = mix(hash) & mask; table[i] != 0; i = (i + 1) & mask)
         {
-            name = id.split("\t", 2)[0];
-            identity = id.split("\t", 2)[1];
+            int term = table[i] - 1;
+            if(hashes[term] == hash && identities[term].equals(identity))
+                return term;
         }
-        else if(Main.lexeme_only)
+        return -1;
+    }
+
+    private void set_line(int term, String extraFields)
+    {
+        if(lines == null)
+            lines = new String[identities.length];
+        lines[term] = extraFields;
+    }
+
+    // term number of identity, adding it if it's new
+    private int term_of(String identity, int hash, long line_index, String extraFields)
+    {
+        int mask = table.length - 1;
+        int i = mix(hash) & mask;
+        for(; table[i] != 0; i = (i + 1) & mask)
         {
-            name = String.join("\t", Arrays.copyOf(id.split("\t", 5),4));
-            identity = id.split("\t", 5)[4];
+            int term = table[i] - 1;
+            if(hashes[term] == hash && identities[term].equals(identity))
+                return term;
         }
-        else
+        
+        int term = size++;
+        if(term == identities.length)
         {
-            name = "";
-            identity = id;
+            int capacity = identities.length*2;
+            identities = Arrays.copyOf(identities, capacity);
+            hashes = Arrays.copyOf(hashes, capacity);
+            counts = Arrays.copyOf(counts, capacity);
+            firsts = Arrays.copyOf(firsts, capacity);
+            if(lines != null)
+                lines = Arrays.copyOf(lines, capacity);
+            if(first_spellings != null)
+            {
+                first_spellings = Arrays.copyOf(first_spellings, capacity);
+                last_spellings = Arrays.copyOf(last_spellings, capacity);
+            }
+        }
+        identities[term] = identity;
+        hashes[term] = hash;
+        firsts[term] = line_index;
+        if(extraFields != null)
+            set_line(term, extraFields);
+        table[i] = term + 1;
+        
+        if(size*2 > table.length)
+        {
+            table = new int[table.length*2];
+            mask = table.length - 1;
+            for(int t = 0; t < size; t++)
+            {
+                int j = mix(hashes[t]) & mask;
+                while(table[j] != 0)
+                    j = (j + 1) & mask;
+                table[j] = t + 1;
+            }
+        }
+        return term;
+    }
+
+    // spelling number of name within term, adding it if it's new
+    private int spelling_of(int term, String name, long line_index)
+    {
+        if(spelling_table == null)
+        {
+            spelling_names = new String[64];
+            spelling_hashes = new int[64];
+            spelling_terms = new int[64];
+            spelling_counts = new int[64];
+            spelling_firsts = new long[64];
+            spelling_next = new int[64];
+            first_spellings = new int[identities.length];
+            last_spellings = new int[identities.length];
+            spelling_table = new int[128];
         }
-        if(frequency.containsKey(identity))
-            frequency.replace(identity, frequency.get(identity)+1);
+        int hash = name.hashCode()*31 + term;
+        int mask = spelling_table.length - 1;
+        int i = mix(hash) & mask;
+        for(; spelling_table[i] != 0; i = (i + 1) & mask)
+        {
+            int spelling = spelling_table[i] - 1;
+            if(spelling_hashes[spelling] == hash && spelling_terms[spelling] == term && spelling_names[spelling].equals(name))
+                return spelling;
+        }
+        
+        int spelling = spelling_size++;
+        if(spelling == spelling_names.length)
+        {
+            int capacity = spelling_names.length*2;
+            spelling_names = Arrays.copyOf(spelling_names, capacity);
+            spelling_hashes = Arrays.copyOf(spelling_hashes, capacity);
+            spelling_terms = Arrays.copyOf(spelling_terms, capacity);
+            spelling_counts = Arrays.copyOf(spelling_counts, capacity);
+            spelling_firsts = Arrays.copyOf(spelling_firsts, capacity);
+            spelling_next = Arrays.copyOf(spelling_next, capacity);
+        }
+        spelling_names[spelling] = name;
+        spelling_hashes[spelling] = hash;
+        spelling_terms[spelling] = term;
+        spelling_firsts[spelling] = line_index;
+        if(last_spellings[term] != 0)
+            spelling_next[last_spellings[term] - 1] = spelling + 1;
         else
+            first_spellings[term] = spelling + 1;
+        last_spellings[term] = spelling + 1;
+        spelling_table[i] = spelling + 1;
+        
+        if(spelling_size*2 > spelling_table.length)
+        {
+            spelling_table = new int[spelling_table.length*2];
+            mask = spelling_table.length - 1;
+            for(int s = 0; s < spelling_size; s++)
+            {
+                int j = mix(spelling_hashes[s]) & mask;
+                while(spelling_table[j] != 0)
+                    j = (j + 1) & mask;
+                spelling_table[j] = s + 1;
+            }
+        }
+        return spelling;
+    }
+
+    // line_index only has to be in input order until renumber() is called
+    // spelling is what -l or -x pulled out of the identity (null without them)
+    // extraFields only gets asked for if the term is new (null if there are none)
+    // returns the term's number, which addGram takes
+    int addEvent(String identity, String spelling, long line_index, Supplier<String> extraFields)
+    {
+        int new_term = size;
+        int term = term_of(identity, identity.hashCode(), line_index, null);
+        if(term == new_term && extraFields != null)
+            set_line(term, extraFields.get());
+        counts[term]++;
+        if(top_terms != null && gram_length == 1)
+            count_top(counts, term);
+        
+        if(spelling != null)
+        {
+            int number = spelling_of(term, spelling, line_index);
+            spelling_counts[number]++;
+        }
+        return term;
+    }
+
+    private static int mix(long key)
+    {
+        return (int)((key*0x9E3779B97F4A7C15L) >>> 32);
+    }
+
+    // the term numbers of an n-gram, first one in the highest bits
+    private long pack(int[] terms)
+    {
+        int bits = 64/gram_length;
+        long key = 0;
+        for(int term : terms)
+        {
+            if(((long)term >>> bits) != 0)
+                throw new IllegalStateException("Too many distinct terms to count " + gram_length + "-grams of");
+            key = key << bits | term;
+        }
+        return key;
+    }
+
+    // fills terms with the term numbers of key
+    private int[] unpack(long key, int[] terms)
+    {
+        int bits = 64/gram_length;
+        long mask = (1L << bits) - 1;
+        for(int i = gram_length - 1; i >= 0; i--, key >>>= bits)
+            terms[i] = (int)(key & mask);
+        return terms;
+    }
+
+    // n-gram number of key, adding it if it's new
+    private int gram_of(long key, long line_index)
+    {
+        int mask = gram_table.length - 1;
+        int i = mix(key) & mask;
+        for(; gram_table[i] != 0; i = (i + 1) & mask)
+        {
+            if(gram_keys[gram_table[i] - 1] == key)
+                return gram_table[i] - 1;
+        }
+
+        int gram = gram_size++;
+        if(gram == gram_keys.length)
+        {
+            int capacity = gram_keys.length*2;
+            gram_keys = Arrays.copyOf(gram_keys, capacity);
+            gram_counts = Arrays.copyOf(gram_counts, capacity);
+            gram_firsts = Arrays.copyOf(gram_firsts, capacity);
+        }
+        gram_keys[gram] = key;
+        gram_firsts[gram] = line_index;
+        gram_table[i] = gram + 1;
+
+        if(gram_size*2 > gram_table.length)
+        {
+            gram_table = new int[gram_table.length*2];
+            mask = gram_table.length - 1;
+            for(int g = 0; g < gram_size; g++)
+            {
+                int j = mix(gram_keys[g]) & mask;
+                while(gram_table[j] != 0)
+                    j = (j + 1) & mask;
+                gram_table[j] = g + 1;
+            }
+        }
+        return gram;
+    }
+
+    // terms: gram_length term numbers from addEvent, in the order they showed up in
+    void addGram(int[] terms, long line_index)
+    {
+        int gram = gram_of(pack(terms), line_index);
+        gram_counts[gram]++;
+        if(top_terms != null)
+            count_top(gram_counts, gram);
+    }
+
+    // Counts only ever go up by one, so a term that isn't among the top ones can only get in by going past the
+    // least counted one there, and one that is can only move up. top_slots says where a term is without looking, so
+    // a count that doesn't make it in takes a comparison, and one that does only as long as it moves up.
+    private void count_top(int[] column, int term)
+    {
+        int count = column[term];
+        if(term >= top_slots.length)
+            top_slots = Arrays.copyOf(top_slots, column.length);
+        int i = top_slots[term] - 1;
+        if(i < 0)
+        {
+            if(top_size == top_terms.length)
+            {
+                if(top_size == 0 || count <= column[top_terms[top_size - 1]])
+                    return;
+                top_slots[top_terms[--top_size]] = 0;
+            }
+            i = top_size++;
+        }
+        for(; i > 0 && column[top_terms[i - 1]] < count; i--)
+        {
+            top_terms[i] = top_terms[i - 1];
+            top_slots[top_terms[i]] = i + 1;
+        }
+        top_terms[i] = term;
+        top_slots[term] = i + 1;
+    }
+
+    private static final int term_kind = 0, spelling_kind = 1, gram_kind = 2;
+
+    // Hands out shards in the order their next term, spelling or n-gram showed up, earliest first, through a queue so
+    // that merging many shards (one per worker and file with --per-source) doesn't scan all of them for every item.
+    private static class ShardOrder
+    {
+        private final List<miniFrequencyData> shards;
+        private final int kind;
+        final int[] next;
+        private final PriorityQueue<Integer> queue;
+        private int current = -1;
+        
+        ShardOrder(List<miniFrequencyData> shards, int kind)
+        {
+            this.shards = shards;
+            this.kind = kind;
+            next = new int[shards.size()];
+            // ties go to the lower shard, which has the earlier lines
+            queue = new PriorityQueue<>(Math.max(1, shards.size()), (a, b) ->
+            {
+                int order = Long.compare(first(a), first(b));
+                return order != 0 ? order : Integer.compare(a, b);
+            });
+            for(int i = 0; i < shards.size(); i++)
+                if(size(i) > 0)
+                    queue.add(i);
+        }
+        
+        private int size(int i)
+        {
+            miniFrequencyData shard = shards.get(i);
+            return kind == spelling_kind ? shard.spelling_size : kind == gram_kind ? shard.gram_size : shard.size;
+        }
+        
+        private long first(int i)
+        {
+            miniFrequencyData shard = shards.get(i);
+            return kind == spelling_kind ? shard.spelling_firsts[next[i]] : kind == gram_kind ? shard.gram_firsts[next[i]] : shard.firsts[next[i]];
+        }
+        
+        // moves past the item handed out last time, then returns the shard whose next item is the earliest, or -1 once
+        // all of them are used up
+        int poll()
+        {
+            if(current >= 0 && ++next[current] < size(current))
+                queue.add(current);
+            current = queue.isEmpty() ? -1 : queue.poll();
+            return current;
+        }
+    }
+
+    // Combines shards that each analyzed a disjoint set of lines, each of them in input order.
+    // Every shard's terms are already sorted by the line they first showed up in, and a line only ever goes to one
+    // shard, so merging them by that line adds terms in exactly the order a single shard analyzing every line would.
+    static miniFrequencyData merge(List<miniFrequencyData> shards)
+    {
+        miniFrequencyData merged = new miniFrequencyData(shards.isEmpty() ? 1 : shards.get(0).gram_length);
+        ShardOrder order = new ShardOrder(shards, term_kind);
+        for(int i; (i = order.poll()) >= 0; )
         {
-            frequency.put(identity, 1);
-            location.put(identity, extra);
-            line.put(identity, extraFields);
+            miniFrequencyData shard = shards.get(i);
+            int from = order.next[i];
+            int to = merged.term_of(shard.identities[from], shard.hashes[from], shard.firsts[from], shard.lines == null ? null : shard.lines[from]);
+            merged.counts[to] += shard.counts[from];
         }
         
-        if(Main.pull_out_spellings || Main.lexeme_only)
+        order = new ShardOrder(shards, spelling_kind);
+        for(int i; (i = order.poll()) >= 0; )
+        {
+            miniFrequencyData shard = shards.get(i);
+            int from = order.next[i];
+            int shard_term = shard.spelling_terms[from];
+            int term = merged.find(shard.identities[shard_term], shard.hashes[shard_term]);
+            int spelling = merged.spelling_of(term, shard.spelling_names[from], shard.spelling_firsts[from]);
+            merged.spelling_counts[spelling] += shard.spelling_counts[from];
+        }
+
+        // every shard numbered its terms its own way, so n-grams get packed again with the merged numbers
+        if(merged.gram_length > 1)
+        {
+            order = new ShardOrder(shards, gram_kind);
+            for(int i; (i = order.poll()) >= 0; )
+            {
+                miniFrequencyData shard = shards.get(i);
+                int from = order.next[i];
+                int[] gram_terms = shard.unpack(shard.gram_keys[from], new int[shard.gram_length]);
+                for(int t = 0; t < gram_terms.length; t++)
+                    gram_terms[t] = merged.find(shard.identities[gram_terms[t]], shard.hashes[gram_terms[t]]);
+                int gram = merged.gram_of(merged.pack(gram_terms), shard.gram_firsts[from]);
+                merged.gram_counts[gram] += shard.gram_counts[from];
+            }
+        }
+        return merged;
+    }
+
+    int size()
+    {
+        return size;
+    }
+
+    int count_of(String identity)
+    {
+        int term = find(identity, identity.hashCode());
+        return term < 0 ? 0 : counts[term];
+    }
+
+    // Writes every term sorted by identity as a frequency list, with term and spelling numbers as their ranks.
+    void writeList(FrequencyList.Writer out) throws IOException
+    {
+        Integer[] order = new Integer[size];
+        for(int term = 0; term < size; term++)
+            order[term] = term;
+        Arrays.sort(order, (a, b) -> identities[a].compareTo(identities[b]));
+        for(int term : order)
         {
-            if(spellings.containsKey(identity))
+            FrequencyList.Record record = new FrequencyList.Record();
+            record.identity = identities[term];
+            record.count = counts[term];
+            record.first = firsts[term];
+            record.rank = term;
+            record.line = lines == null ? null : lines[term];
+            ArrayList<FrequencyList.Spelling> spellings = new ArrayList<>();
+            if(first_spellings != null)
             {
-                HashMap<String, Integer> entry = spellings.get(identity);
-                if(entry.containsKey(name))
-                    entry.replace(name, entry.get(name)+1);
-                else
-                    entry.put(name, 1);
+                for(int spelling = first_spellings[term] - 1; spelling >= 0; spelling = spelling_next[spelling] - 1)
+                {
+                    FrequencyList.Spelling entry = new FrequencyList.Spelling();
+                    entry.name = spelling_names[spelling];
+                    entry.count = spelling_counts[spelling];
+                    entry.first = spelling_firsts[spelling];
+                    entry.rank = spelling;
+                    spellings.add(entry);
+                }
             }
+            record.spellings = spellings.toArray(new FrequencyList.Spelling[0]);
+            out.write(record);
+        }
+    }
+
+    // Writes the whole table in term order so that readSnapshot can fill the columns straight back in.
+    void writeSnapshot(DataOutputStream out) throws IOException
+    {
+        out.writeLong(line_count);
+        out.writeInt(size);
+        out.writeBoolean(lines != null);
+        for(int term = 0; term < size; term++)
+        {
+            FrequencyList.writeString(out, identities[term]);
+            out.writeInt(counts[term]);
+            out.writeLong(firsts[term]);
+            if(lines != null)
+                FrequencyList.writeString(out, lines[term]);
+        }
+        out.writeInt(spelling_size);
+        for(int spelling = 0; spelling < spelling_size; spelling++)
+        {
+            out.writeInt(spelling_terms[spelling]);
+            FrequencyList.writeString(out, spelling_names[spelling]);
+            out.writeInt(spelling_counts[spelling]);
+            out.writeLong(spelling_firsts[spelling]);
+        }
+    }
+
+    private static int capacity_for(int n)
+    {
+        return Math.max(64, Integer.highestOneBit(Math.max(1, n))*2);
+    }
+
+    // Everything comes back with the same numbers it had, so the indexes just get rebuilt without any lookups.
+    static miniFrequencyData readSnapshot(DataInputStream in) throws IOException
+    {
+        miniFrequencyData data = new miniFrequencyData();
+        data.line_count = in.readLong();
+        int size = in.readInt();
+        boolean has_lines = in.readBoolean();
+        if(size < 0)
+            throw new IOException("Corrupt snapshot");
+        int capacity = capacity_for(size);
+        data.identities = new String[capacity];
+        data.hashes = new int[capacity];
+        data.counts = new int[capacity];
+        data.firsts = new long[capacity];
+        if(has_lines)
+            data.lines = new String[capacity];
+        data.table = new int[capacity*2];
+        int mask = data.table.length - 1;
+        for(int term = 0; term < size; term++)
+        {
+            String identity = FrequencyList.readString(in);
+            data.identities[term] = identity;
+            data.hashes[term] = identity.hashCode();
+            data.counts[term] = in.readInt();
+            data.firsts[term] = in.readLong();
+            if(has_lines)
+                data.lines[term] = FrequencyList.readString(in);
+            int i = mix(data.hashes[term]) & mask;
+            while(data.table[i] != 0)
+                i = (i + 1) & mask;
+            data.table[i] = term + 1;
+        }
+        data.size = size;
+
+        int spelling_size = in.readInt();
+        if(spelling_size < 0)
+            throw new IOException("Corrupt snapshot");
+        if(spelling_size == 0)
+            return data;
+        int spelling_capacity = capacity_for(spelling_size);
+        data.spelling_names = new String[spelling_capacity];
+        data.spelling_hashes = new int[spelling_capacity];
+        data.spelling_terms = new int[spelling_capacity];
+        data.spelling_counts = new int[spelling_capacity];
+        data.spelling_firsts = new long[spelling_capacity];
+        data.spelling_next = new int[spelling_capacity];
+        data.first_spellings = new int[capacity];
+        data.last_spellings = new int[capacity];
+        data.spelling_table = new int[spelling_capacity*2];
+        mask = data.spelling_table.length - 1;
+        for(int spelling = 0; spelling < spelling_size; spelling++)
+        {
+            int term = in.readInt();
+            if(term < 0 || term >= size)
+                throw new IOException("Corrupt snapshot");
+            String name = FrequencyList.readString(in);
+            data.spelling_terms[spelling] = term;
+            data.spelling_names[spelling] = name;
+            data.spelling_hashes[spelling] = name.hashCode()*31 + term;
+            data.spelling_counts[spelling] = in.readInt();
+            data.spelling_firsts[spelling] = in.readLong();
+            if(data.last_spellings[term] != 0)
+                data.spelling_next[data.last_spellings[term] - 1] = spelling + 1;
             else
+                data.first_spellings[term] = spelling + 1;
+            data.last_spellings[term] = spelling + 1;
+            int i = mix(data.spelling_hashes[spelling]) & mask;
+            while(data.spelling_table[i] != 0)
+                i = (i + 1) & mask;
+            data.spelling_table[i] = spelling + 1;
+        }
+        data.spelling_size = spelling_size;
+        return data;
+    }
+
+    // turns whatever line numbering was used while counting into the final one
+    void renumber(LongUnaryOperator line_number)
+    {
+        for(int term = 0; term < size; term++)
+            firsts[term] = line_number.applyAsLong(firsts[term]);
+        for(int spelling = 0; spelling < spelling_size; spelling++)
+            spelling_firsts[spelling] = line_number.applyAsLong(spelling_firsts[spelling]);
+        for(int gram = 0; gram < gram_size; gram++)
+            gram_firsts[gram] = line_number.applyAsLong(gram_firsts[gram]);
+    }
+
+    // tables bigger than this get sorted on all cores
+    private static final int parallel_sort_above = 1<<16;
+
+    // Term (or n-gram) numbers to output, most frequent first and in order of first occurrence among equal counts.
+    // Each candidate gets packed into a long that sorts in exactly that order: inverted count on top, term number below.
+    // With top > 0 only a bounded max-heap of the best candidates so far is kept instead of sorting everything.
+    private static int[] selectTerms(int[] counts, int size, int top, int min_count)
+    {
+        long[] keys;
+        int n = 0;
+        if(top > 0)
+        {
+            keys = new long[Math.min(top, size)];
+            for(int term = 0; term < size; term++)
             {
-                HashMap<String, Integer> entry = new HashMap<>();
-                entry.put(name, 1);
-                spellings.put(identity, entry);
+                if(counts[term] < min_count) continue;
+                long key = (long)(Integer.MAX_VALUE - counts[term]) << 32 | term;
+                if(n < keys.length)
+                {
+                    // sift up
+                    int i = n++;
+                    while(i > 0 && keys[(i-1)/2] < key)
+                    {
+                        keys[i] = keys[(i-1)/2];
+                        i = (i-1)/2;
+                    }
+                    keys[i] = key;
+                }
+                else if(key < keys[0])
+                {
+                    // replace the worst one and sift down
+                    int i = 0;
+                    while(true)
+                    {
+                        int child = i*2 + 1;
+                        if(child >= n) break;
+                        if(child + 1 < n && keys[child + 1] > keys[child]) child++;
+                        if(keys[child] <= key) break;
+                        keys[i] = keys[child];
+                        i = child;
+                    }
+                    keys[i] = key;
+                }
             }
         }
+        else
+        {
+            keys = new long[size];
+            for(int term = 0; term < size; term++)
+                if(counts[term] >= min_count)
+                    keys[n++] = (long)(Integer.MAX_VALUE - counts[term]) << 32 | term;
+        }
+        if(n > parallel_sort_above)
+            Arrays.parallelSort(keys, 0, n);
+        else
+            Arrays.sort(keys, 0, n);
+        int[] terms = new int[n];
+        for(int i = 0; i < n; i++)
+            terms[i] = (int)keys[i];
+        return terms;
     }
 
     ArrayList<Fact> getSortedFrequencyList()
     {
-        ArrayList<Fact> mapping = new ArrayList<>();
-        for(HashMap.Entry<String, Integer> v : frequency.entrySet())
+        return getSortedFrequencyList(0, 0, null);
+    }
+
+    // Just the counts and identities (or n-grams) of the top terms, which are the ones getSortedFrequencyList would
+    // list first, other than in what order ties come in. The first call goes through the whole table, and from then
+    // on addEvent and addGram keep them up to date, so later calls only take as long as there are top terms.
+    ArrayList<Fact> getTopTerms(int top)
+    {
+        boolean grams = gram_length > 1;
+        if(top_terms == null || top_terms.length != top)
         {
-            Integer frequency = v.getValue();
-            String identity = v.getKey();
-            Integer location = this.location.get(v.getKey());
-            String line = this.line.get(v.getKey());
-            
-            Fact fact = new Fact(frequency, identity);
+            int[] selected = grams ? selectTerms(gram_counts, gram_size, top, 0) : selectTerms(counts, size, top, 0);
+            top_terms = Arrays.copyOf(selected, top);
+            top_size = selected.length;
+            top_slots = new int[grams ? gram_counts.length : counts.length];
+            for(int i = 0; i < top_size; i++)
+                top_slots[top_terms[i]] = i + 1;
+        }
+        int[] gram_terms = grams ? new int[gram_length] : null;
+        ArrayList<Fact> mapping = new ArrayList<>(top_size);
+        for(int i = 0; i < top_size; i++)
+        {
+            int selection = top_terms[i];
+            if(!grams)
+            {
+                mapping.add(new Fact(counts[selection], identities[selection]));
+                continue;
+            }
+            StringJoiner id = new StringJoiner("\t");
+            for(int term : unpack(gram_keys[selection], gram_terms))
+                id.add(identities[term]);
+            mapping.add(new Fact(gram_counts[selection], id.toString()));
+        }
+        return mapping;
+    }
+
+    // top: only the this many most frequent terms (all if 0), min_count: only terms seen at least this often
+    // line_label: how to show the line a term first showed up in, null to leave it out
+    // with n-grams, those are what's listed, as the identities of their terms one after another
+    ArrayList<Fact> getSortedFrequencyList(int top, int min_count, LongFunction<String> line_label)
+    {
+        if(gram_length > 1)
+        {
+            int[] selected = selectTerms(gram_counts, gram_size, top, min_count);
+            ArrayList<Fact> mapping = new ArrayList<>(selected.length);
+            for(int gram : selected)
+            {
+                StringJoiner id = new StringJoiner("\t");
+                for(int term : unpack(gram_keys[gram], new int[gram_length]))
+                    id.add(identities[term]);
+                if(line_label != null)
+                    id.add(line_label.apply(gram_firsts[gram]));
+                mapping.add(new Fact(gram_counts[gram], id.toString()));
+            }
+            return mapping;
+        }
+        int[] selected = selectTerms(counts, size, top, min_count);
+        ArrayList<Fact> mapping = new ArrayList<>(selected.length);
+        for(int term : selected)
+        {
+            Fact fact = new Fact(counts[term], identities[term]);
+
+            if(line_label != null)
+                fact.id += "\t"+line_label.apply(firsts[term]);
 
-            if(location >= 0)
-                fact.id += "\t"+location.toString();
+            if(lines != null && lines[term] != null)
+                fact.id += "\t"+lines[term];
 
-            if(line != null)
-                fact.id += "\t"+line;
+            if(source_tables != null)
+            {
+                for(ArrayList<miniFrequencyData> source : source_tables)
+                {
+                    int count = 0;
+                    for(miniFrequencyData table : source)
+                        count += table.count_of(identities[term]);
+                    fact.id += "\t"+count;
+                }
+            }
             
-            if(Main.pull_out_spellings || Main.lexeme_only)
+            if(first_spellings != null)
             {
-                HashMap<String, Integer> my_spellings = spellings.get(identity);
                 ArrayList<Fact> my_sorted_spellings = new ArrayList<>();
                 
-                for(HashMap.Entry<String, Integer> v2 : my_spellings.entrySet()) 
-                    my_sorted_spellings.add(new Fact(v2.getValue(), v2.getKey()));
+                for(int spelling = first_spellings[term] - 1; spelling >= 0; spelling = spelling_next[spelling] - 1)
+                    my_sorted_spellings.add(new Fact(spelling_counts[spelling], spelling_names[spelling]));
                 
                 my_sorted_spellings.sort((a, b) -> b.count - a.count);
                 
@@ -104,11 +753,65 @@ class miniFrequencyData
             }
             
             mapping.add(fact);
-            
-            //spellings.get(identity).entrySet().stream().sorted(Comparator.comparingInt(e -> e.getValue())).forEach(e -> fact.id += "\t" + e.getKey() + "\t" + e.getValue());
         }
-
-        mapping.sort((a, b) -> b.count - a.count);
         return mapping;
     }
-}
\ No newline at end of file
+
+    // The same rows getSortedFrequencyList gives, but written straight out of the columns, so nothing gets put
+    // together per row except line labels.
+    void writeSortedFrequencyList(TsvWriter out, int top, int min_count, LongFunction<String> line_label) throws IOException
+    {
+        if(gram_length > 1)
+        {
+            int[] gram_terms = new int[gram_length];
+            for(int gram : selectTerms(gram_counts, gram_size, top, min_count))
+            {
+                out.write(gram_counts[gram]);
+                for(int term : unpack(gram_keys[gram], gram_terms))
+                    out.tab().write(identities[term]);
+                if(line_label != null)
+                    out.tab().write(line_label.apply(gram_firsts[gram]));
+                out.end_row();
+            }
+            return;
+        }
+        // a term's spellings, most frequent first and in the order they showed up in among equal counts, packed
+        // like in selectTerms (spelling numbers go up along a term's chain)
+        long[] spelling_order = new long[16];
+        for(int term : selectTerms(counts, size, top, min_count))
+        {
+            out.write(counts[term]).tab().write(identities[term]);
+            if(line_label != null)
+                out.tab().write(line_label.apply(firsts[term]));
+            if(lines != null && lines[term] != null)
+                out.tab().write(lines[term]);
+            if(source_tables != null)
+            {
+                for(ArrayList<miniFrequencyData> source : source_tables)
+                {
+                    int count = 0;
+                    for(miniFrequencyData table : source)
+                        count += table.count_of(identities[term]);
+                    out.tab().write(count);
+                }
+            }
+            if(first_spellings != null)
+            {
+                int n = 0;
+                for(int spelling = first_spellings[term] - 1; spelling >= 0; spelling = spelling_next[spelling] - 1)
+                {
+                    if(n == spelling_order.length)
+                        spelling_order = Arrays.copyOf(spelling_order, n*2);
+                    spelling_order[n++] = (long)(Integer.MAX_VALUE - spelling_counts[spelling]) << 32 | spelling;
+                }
+                Arrays.sort(spelling_order, 0, n);
+                for(int i = 0; i < n; i++)
+                {
+                    int spelling = (int)spelling_order[i];
+                    out.tab().write(spelling_names[spelling]).tab().write(spelling_counts[spelling]);
+                }
+            }
+            out.end_row();
+        }
+    }
+}